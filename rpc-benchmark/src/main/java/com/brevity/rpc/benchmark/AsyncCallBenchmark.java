@@ -0,0 +1,187 @@
+package com.brevity.rpc.benchmark;
+
+import com.brevity.rpc.codec.RpcDecoder;
+import com.brevity.rpc.codec.RpcEncoder;
+import com.brevity.rpc.common.RpcConsumerConfig;
+import com.brevity.rpc.common.RpcFuture;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcRequestHolder;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.consumer.RpcReponseHandler;
+import com.brevity.rpc.handler.RpcInvokerRegistry;
+import com.brevity.rpc.handler.RpcRequestHandler;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 同步调用与异步调用的吞吐量和延迟对比，请求经过本机回环连接发往真实的服务端处理器。
+ * syncBlocking由FAN_OUT个线程各自阻塞等待响应，模拟网关为每个下游调用占用一个线程；
+ * async系列由一个线程一次发出FAN_OUT个调用再等待全部完成，callbackOnIoThread在IO线程上执行用户的后续操作，
+ * callbackOnExecutor切换到回调线程池上执行。callbackTokens模拟后续操作的CPU开销，
+ * 开销较大时在IO线程上执行会推迟同一连接上其他响应的处理。
+ * 运行：mvn -pl rpc-benchmark -am install -DskipTests 后执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncCallBenchmark {
+
+    private static final int FAN_OUT = 16;
+
+    public interface EchoService {
+        String echo(String message);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+    }
+
+    @Param({"0", "5000"})
+    public int callbackTokens;
+
+    private EventLoopGroup serverGroup;
+    private EventLoopGroup clientGroup;
+    private ExecutorService callbackExecutor;
+    private Channel channel;
+    private Function<RpcResponse, Object> callback;
+
+    @Setup
+    public void setup() throws Exception {
+        RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
+        invokerRegistry.register(EchoService.class.getName(), "1.0", EchoService.class, new EchoServiceImpl(),
+                (byte) 0);
+        serverGroup = new NioEventLoopGroup(1);
+        Channel server = new ServerBootstrap().group(serverGroup).channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new RpcEncoder(), new RpcDecoder(),
+                                new RpcRequestHandler(invokerRegistry));
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        RpcConsumerConfig consumerConfig = new RpcConsumerConfig();
+        clientGroup = new NioEventLoopGroup(1);
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(clientGroup).channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new RpcEncoder(), new RpcDecoder(),
+                                new RpcReponseHandler(bootstrap, consumerConfig));
+                    }
+                });
+        channel = bootstrap.connect((InetSocketAddress) server.localAddress()).sync().channel();
+        callbackExecutor = Executors.newFixedThreadPool(consumerConfig.getCallbackThreads(),
+                new DefaultThreadFactory("rpc-callback", true));
+        callback = response -> {
+            Blackhole.consumeCPU(callbackTokens);
+            return response.getData();
+        };
+        // 等待握手完成
+        call().get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close().syncUninterruptibly();
+        callbackExecutor.shutdownNow();
+        clientGroup.shutdownGracefully();
+        serverGroup.shutdownGracefully();
+    }
+
+    @Benchmark
+    @Threads(FAN_OUT)
+    public Object syncBlocking() throws Exception {
+        return callback.apply(call().get(5000, TimeUnit.MILLISECONDS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT)
+    public Object callbackOnIoThread() throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            futures[i] = call().thenApply(callback);
+        }
+        return CompletableFuture.allOf(futures).get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT)
+    public Object callbackOnExecutor() throws Exception {
+        CompletableFuture<?>[] futures = new CompletableFuture[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            futures[i] = call().thenApplyAsync(callback, callbackExecutor);
+        }
+        return CompletableFuture.allOf(futures).get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    private RpcFuture<RpcResponse> call() {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setStatus((byte) 0x1);
+        header.setSerialization((byte) SerializationTypeEnum.Kryo.getType());
+        header.setMsgType((byte) MsgType.REQUEST.getType());
+        RpcRequest request = new RpcRequest();
+        request.setClassName(EchoService.class.getName());
+        request.setServiceVersion("1.0");
+        request.setMethodName("echo");
+        request.setParameterTypes(new Class[]{String.class});
+        request.setParams(new Object[]{"brevity"});
+        RpcProtocol<RpcRequest> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(request);
+        RpcFuture<RpcResponse> future = new RpcFuture<>(5000);
+        header.setRequestID(RpcRequestHolder.addRequest(channel, future));
+        channel.writeAndFlush(protocol);
+        return future;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AsyncCallBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.brevity.rpc.benchmark;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcServiceHelper;
+import com.brevity.rpc.handler.RpcInvokerRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.cglib.reflect.FastClass;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端方法分发的开销：原来每次请求拼接服务key查找服务bean，再FastClass.create和getIndex后调用；
+ * 现在发布服务时预先生成调用器，按方法签名或方法ID查找一次即可调用。
+ * 运行：mvn -pl rpc-benchmark -am install -DskipTests 后执行本类的main方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerDispatchBenchmark {
+
+    private static final String VERSION = "1.0";
+
+    public interface HelloService {
+        String hello(String name, int times);
+    }
+
+    public static class HelloServiceImpl implements HelloService {
+        @Override
+        public String hello(String name, int times) {
+            return name;
+        }
+    }
+
+    private final Map<String, Object> rpcServiceMap = new HashMap<>();
+
+    private final RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
+
+    private RpcRequest request;
+
+    private int methodId;
+
+    @Setup
+    public void setup() {
+        HelloServiceImpl serviceBean = new HelloServiceImpl();
+        rpcServiceMap.put(RpcServiceHelper.buildServiceKey(HelloService.class.getName(), VERSION), serviceBean);
+        invokerRegistry.register(HelloService.class.getName(), VERSION, HelloService.class, serviceBean, (byte) 0);
+        request = new RpcRequest();
+        request.setClassName(HelloService.class.getName());
+        request.setServiceVersion(VERSION);
+        request.setMethodName("hello");
+        request.setParameterTypes(new Class<?>[]{String.class, int.class});
+        request.setParams(new Object[]{"brevity", 1});
+        methodId = invokerRegistry.getInvoker(request).getId();
+    }
+
+    /**
+     * 优化前RpcRequestHandler.handle中的分发方式
+     */
+    @Benchmark
+    public Object legacyFastClassPerRequest() throws Exception {
+        String serviceKey = RpcServiceHelper.buildServiceKey(request.getClassName(), request.getServiceVersion());
+        Object serviceBean = rpcServiceMap.get(serviceKey);
+        FastClass fastClass = FastClass.create(serviceBean.getClass());
+        int methodIndex = fastClass.getIndex(request.getMethodName(), request.getParameterTypes());
+        return fastClass.invoke(methodIndex, serviceBean, request.getParams());
+    }
+
+    @Benchmark
+    public Object invokerByMethodKey() throws Exception {
+        return invokerRegistry.getInvoker(request).invoke(request.getParams());
+    }
+
+    @Benchmark
+    public Object invokerByMethodId() throws Exception {
+        return invokerRegistry.getInvoker(methodId).invoke(request.getParams());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(InvokerDispatchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
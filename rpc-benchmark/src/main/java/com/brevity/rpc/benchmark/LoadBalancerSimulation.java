@@ -0,0 +1,135 @@
+package com.brevity.rpc.benchmark;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.Endpoint;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
+import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.LeastActiveLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.PeakEwmaLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.RandomLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.RoundRobinLoadBalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 负载均衡策略在节点响应时间不均时的对比模拟，不经过网络，直接使用负载均衡器和Endpoint上的统计。
+ * 每个模拟节点同时只能处理WORKERS个请求，多出的排队；其中一个节点的服务时间是其他节点的SLOW_FACTOR倍。
+ * CLIENTS个调用方线程闭环地选择节点、排队、处理，结束后像RpcRequestHolder一样更新活跃数和响应时间，
+ * 输出各策略的吞吐量、响应时间分位数和慢节点分到的流量比例。
+ * 运行：mvn -pl rpc-benchmark -am install -DskipTests 后执行本类的main方法
+ */
+public class LoadBalancerSimulation {
+
+    private static final int SERVERS = 5;
+    private static final int WORKERS = 4;
+    private static final int CLIENTS = 32;
+    private static final long SERVICE_MICROS = 2000;
+    private static final int SLOW_FACTOR = 10;
+    private static final long DURATION_MILLIS = 5000;
+
+    private static int portBase = 30000; // 每轮模拟使用新的地址，Endpoint上的统计不会带到下一轮
+
+    public static void main(String[] args) throws Exception {
+        Map<String, ServiceLoadBalancer<ServiceMeta>> loadBalancers = new LinkedHashMap<>();
+        loadBalancers.put("Random", new RandomLoadBalancer());
+        loadBalancers.put("RoundRobin", new RoundRobinLoadBalancer());
+        loadBalancers.put("LeastActive", new LeastActiveLoadBalancer());
+        loadBalancers.put("PeakEwma", new PeakEwmaLoadBalancer(500));
+        System.out.printf("%-12s %10s %8s %8s %8s %10s%n", "strategy", "req/s", "p50 ms", "p99 ms", "max ms",
+                "slow share");
+        for (Map.Entry<String, ServiceLoadBalancer<ServiceMeta>> entry : loadBalancers.entrySet()) {
+            simulate(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void simulate(String name, ServiceLoadBalancer<ServiceMeta> loadBalancer) throws Exception {
+        ChannelProvider channelProvider = ChannelProvider.getInstance();
+        List<ServiceMeta> servers = new ArrayList<>();
+        Semaphore[] workers = new Semaphore[SERVERS];
+        for (int i = 0; i < SERVERS; i++) {
+            ServiceMeta serviceMeta = new ServiceMeta();
+            serviceMeta.setServiceAddr("10.0.0." + i);
+            serviceMeta.setServicePort(portBase);
+            serviceMeta.setWeight(50);
+            servers.add(serviceMeta);
+            workers[i] = new Semaphore(WORKERS, true);
+        }
+        portBase++;
+        // 与路由快照相同，节点的Endpoint和权重预先算好
+        List<ServiceMeta> serverList = ServerList.of(servers);
+        AtomicLongArray served = new AtomicLongArray(SERVERS);
+        List<long[]> latencies = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        CountDownLatch done = new CountDownLatch(CLIENTS);
+        for (int c = 0; c < CLIENTS; c++) {
+            long[] samples = new long[200000];
+            latencies.add(samples);
+            new Thread(() -> {
+                RpcRequest request = new RpcRequest();
+                request.setClassName("com.brevity.rpc.facade.HelloFacade");
+                request.setServiceVersion("1.0");
+                int n = 0;
+                try {
+                    while (System.nanoTime() < deadline && n < samples.length - 1) {
+                        ServiceMeta serviceMeta = loadBalancer.select(serverList, request);
+                        int index = servers.indexOf(serviceMeta);
+                        Endpoint endpoint = channelProvider.endpoint(serviceMeta);
+                        long start = System.nanoTime();
+                        endpoint.requestStarted();
+                        workers[index].acquire();
+                        try {
+                            long micros = index == 0 ? SERVICE_MICROS * SLOW_FACTOR : SERVICE_MICROS;
+                            // 服务时间在均值上下浮动50%
+                            micros = micros / 2 + ThreadLocalRandom.current().nextLong(micros);
+                            TimeUnit.MICROSECONDS.sleep(micros);
+                        } finally {
+                            workers[index].release();
+                        }
+                        long latency = System.nanoTime() - start;
+                        endpoint.requestFinished();
+                        endpoint.recordLatency(latency);
+                        served.incrementAndGet(index);
+                        samples[++n] = latency;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                samples[0] = n;
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += (int) samples[0];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] samples : latencies) {
+            int n = (int) samples[0];
+            System.arraycopy(samples, 1, all, pos, n);
+            pos += n;
+        }
+        Arrays.sort(all);
+        System.out.printf("%-12s %10.0f %8.2f %8.2f %8.2f %9.1f%%%n", name,
+                total * 1000.0 / DURATION_MILLIS, millis(all, 0.50), millis(all, 0.99), millis(all, 1.0),
+                served.get(0) * 100.0 / total);
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
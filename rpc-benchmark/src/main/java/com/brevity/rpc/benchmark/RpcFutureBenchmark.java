@@ -0,0 +1,84 @@
+package com.brevity.rpc.benchmark;
+
+import com.brevity.rpc.common.RpcFuture;
+import com.brevity.rpc.common.RpcResponse;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.util.concurrent.DefaultPromise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次调用的等待结果开销：原来每次调用创建DefaultEventLoop和DefaultPromise，现在是基于CompletableFuture的RpcFuture。
+ * sameThread在调用线程上完成，只比较分配和完成的开销；crossThread由另一个线程完成，模拟IO线程收到响应后唤醒调用线程。
+ * 运行：mvn -pl rpc-benchmark -am install -DskipTests 后执行本类的main方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcFutureBenchmark {
+
+    private final RpcResponse response = new RpcResponse();
+
+    private ExecutorService ioThread;
+
+    @Setup
+    public void setup() {
+        ioThread = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ioThread.shutdownNow();
+    }
+
+    @Benchmark
+    public RpcResponse legacyPromiseSameThread() throws Exception {
+        DefaultPromise<RpcResponse> promise = new DefaultPromise<>(new DefaultEventLoop());
+        promise.setSuccess(response);
+        return promise.get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public RpcResponse rpcFutureSameThread() throws Exception {
+        RpcFuture<RpcResponse> future = new RpcFuture<>(5000);
+        future.complete(response);
+        return future.get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public RpcResponse legacyPromiseCrossThread() throws Exception {
+        DefaultPromise<RpcResponse> promise = new DefaultPromise<>(new DefaultEventLoop());
+        ioThread.execute(() -> promise.setSuccess(response));
+        return promise.get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public RpcResponse rpcFutureCrossThread() throws Exception {
+        RpcFuture<RpcResponse> future = new RpcFuture<>(5000);
+        ioThread.execute(() -> future.complete(response));
+        return future.get(5000, TimeUnit.MILLISECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RpcFutureBenchmark.class.getSimpleName()).build()).run();
+    }
+}
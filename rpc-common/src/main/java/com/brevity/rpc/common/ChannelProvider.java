@@ -1,26 +1,39 @@
 package com.brevity.rpc.common;
 
 import io.netty.channel.Channel;
-import lombok.Data;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 对channel进行管理，单例模式
+ * 对channel进行管理，单例模式。每个服务端地址维护一个连接池
  */
 @Slf4j
 public class ChannelProvider {
 
-    private final Map<String, Node> channelMap;
+    public static final AttributeKey<Endpoint> ENDPOINT = AttributeKey.valueOf("endpoint");
+
+    public static final AttributeKey<Boolean> RETRY = AttributeKey.valueOf("retry"); // 异常断开，需要重连
+
+    private final Map<Endpoint, Endpoint> endpointMap;
+
+    private final Map<Endpoint, Node> channelMap;
 
     private static ChannelProvider instance;
 
+    // 节点可用状态(重连中、建连失败被排除)每变化一次加1，路由快照据此判断是否需要重建
+    private static final AtomicLong HEALTH_VERSION = new AtomicLong();
+
     public static ChannelProvider getInstance() {
         if (instance == null) {
             synchronized (ChannelProvider.class) {
@@ -32,70 +45,177 @@ public class ChannelProvider {
         return instance;
     }
 
-    @Data
+    /**
+     * 一个服务端地址上的连接池
+     */
     public static class Node {
-        Channel channel;
-        boolean retry;
+        @Getter
+        private final Endpoint endpoint;
+        private final List<Channel> channels = new CopyOnWriteArrayList<>();
+        // 正在进行的建连，并发的调用方共享同一个future
+        private final AtomicReference<CompletableFuture<Channel>> connectFuture = new AtomicReference<>();
+        @Getter
+        private volatile long excludedUntil; // 建连失败后，在该时间点之前不参与选择
+        @Getter
+        volatile boolean retry;
+        @Getter
+        @Setter
         int retry_count = 0;
 
-        public Node(Channel channel, boolean retry) {
-            this.channel = channel;
-            this.retry = retry;
+        public Node(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * 选择等待响应的请求数最少的channel，可写的channel优先
+         */
+        public Channel select() {
+            Channel best = null;
+            boolean bestWritable = false;
+            int bestPending = Integer.MAX_VALUE;
+            for (Channel channel : channels) {
+                if (!channel.isActive()) {
+                    continue;
+                }
+                boolean writable = channel.isWritable();
+                int pending = PendingRequestTable.get(channel).size();
+                if (best == null || (writable && !bestWritable)
+                        || (writable == bestWritable && pending < bestPending)) {
+                    best = channel;
+                    bestWritable = writable;
+                    bestPending = pending;
+                }
+            }
+            return best;
+        }
+
+        public int size() {
+            return channels.size();
+        }
+
+        public boolean isExcluded() {
+            return retry || excludedUntil > System.currentTimeMillis();
+        }
+
+        public void setRetry(boolean retry) {
+            if (this.retry != retry) {
+                this.retry = retry;
+                HEALTH_VERSION.incrementAndGet();
+            }
+        }
+
+        public void setExcludedUntil(long excludedUntil) {
+            if (this.excludedUntil != excludedUntil) {
+                this.excludedUntil = excludedUntil;
+                HEALTH_VERSION.incrementAndGet();
+            }
+        }
+
+        public CompletableFuture<Channel> getConnectFuture() {
+            return connectFuture.get();
+        }
+
+        /**
+         * 同一时刻每个地址只允许一个建连在进行，返回true表示调用方抢到了建连权，需要负责完成future
+         */
+        public boolean startConnect(CompletableFuture<Channel> future) {
+            return connectFuture.compareAndSet(null, future);
+        }
+
+        public void connectFinished(CompletableFuture<Channel> future) {
+            connectFuture.compareAndSet(future, null);
         }
     }
 
     private ChannelProvider() {
+        endpointMap = new ConcurrentHashMap<>();
         channelMap = new ConcurrentHashMap<>();
     }
 
-    public Channel get(ServiceMeta serviceMeta) {
-        String address = serviceMeta.getServiceAddr() + serviceMeta.getServicePort();
-        if (channelMap.containsKey(address)) {
-            Channel channel = channelMap.get(address).channel;
-            if (channel != null && channel.isActive()) {
-                return channel;
-            } else {
-                channelMap.remove(address);
-                if (channel != null) channel.close();
+    /**
+     * 获取ServiceMeta对应的唯一Endpoint实例，解析结果缓存在ServiceMeta上
+     */
+    public Endpoint endpoint(ServiceMeta serviceMeta) {
+        Endpoint endpoint = serviceMeta.endpoint;
+        if (endpoint == null) {
+            endpoint = endpoint(serviceMeta.getServiceAddr(), serviceMeta.getServicePort());
+            serviceMeta.endpoint = endpoint;
+        }
+        return endpoint;
+    }
+
+    public Endpoint endpoint(String host, int port) {
+        Endpoint key = new Endpoint(host, port);
+        Endpoint endpoint = endpointMap.putIfAbsent(key, key);
+        return endpoint == null ? key : endpoint;
+    }
+
+    public Node getNode(Endpoint endpoint) {
+        Node node = channelMap.get(endpoint);
+        if (node == null) {
+            Node newNode = new Node(endpoint);
+            node = channelMap.putIfAbsent(endpoint, newNode);
+            if (node == null) {
+                node = newNode;
             }
         }
-        return null;
+        return node;
     }
 
-    public Node get(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.getHostString() + inetSocketAddress.getPort();
-        return channelMap.get(key);
+    public Node get(Endpoint endpoint) {
+        return channelMap.get(endpoint);
     }
 
-    public void put(InetSocketAddress inetSocketAddress, Channel channel) {
-        String key = inetSocketAddress.getHostString() + inetSocketAddress.getPort();
-        channelMap.put(key, new Node(channel, false));
+    /**
+     * 把建连成功的channel加入连接池，channel已经关闭时不加入并返回false。
+     * 加入后在closeFuture上移除，建连完成前或加入前后关闭的channel也不会残留在连接池中
+     */
+    public boolean put(Endpoint endpoint, Channel channel) {
+        if (!channel.isActive()) {
+            log.warn("channel {} closed before joining the pool of {}", channel, endpoint);
+            return false;
+        }
+        channel.attr(ENDPOINT).set(endpoint);
+        getNode(endpoint).channels.add(channel);
+        channel.closeFuture().addListener(future -> removeChannel(channel));
         log.info("ChannelMap insert new channel: " + channel.toString());
+        return true;
     }
 
-    public void setChannelRetry(InetSocketAddress inetSocketAddress, boolean flag) {
-        String key = inetSocketAddress.getHostString() + inetSocketAddress.getPort();
-        Node node = channelMap.get(key);
-        node.retry = flag;
-        channelMap.put(key, node);
+    /**
+     * 从连接池中移除已关闭的channel，返回该channel所属的连接池
+     */
+    public Node removeChannel(Channel channel) {
+        Endpoint endpoint = channel.attr(ENDPOINT).get();
+        if (endpoint == null) {
+            return null;
+        }
+        Node node = channelMap.get(endpoint);
+        if (node != null && node.channels.remove(channel)) {
+            log.info("ChannelMap remove channel: " + channel);
+        }
+        return node;
     }
 
-    public void remove(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.getHostString() + inetSocketAddress.getPort();
-        log.info("ChannelMap remove channel: " + key);
-        channelMap.remove(key);
+    public void remove(Endpoint endpoint) {
+        log.info("ChannelMap remove endpoint: " + endpoint);
+        if (channelMap.remove(endpoint) != null) {
+            HEALTH_VERSION.incrementAndGet();
+        }
+    }
+
+    public long getHealthVersion() {
+        return HEALTH_VERSION.get();
     }
 
     public List<ServiceMeta> chooseHAServiceMeta(List<ServiceMeta> serviceMetaList) {
-        List<ServiceMeta> hAServiceMetaList = null;
-        hAServiceMetaList = serviceMetaList.stream().filter(new Predicate<ServiceMeta>() {
-                    @Override
-                    public boolean test(ServiceMeta serviceMeta) {
-                        String key = serviceMeta.getServiceAddr() + serviceMeta.getServicePort();
-                        return !channelMap.containsKey(key) || !channelMap.get(key).retry;
-                    }
-                })
-                .collect(Collectors.toList());
+        List<ServiceMeta> hAServiceMetaList = new ArrayList<>(serviceMetaList.size());
+        for (ServiceMeta serviceMeta : serviceMetaList) {
+            Node node = channelMap.get(endpoint(serviceMeta));
+            if (node == null || !node.isExcluded()) {
+                hAServiceMetaList.add(serviceMeta);
+            }
+        }
         return hAServiceMetaList;
     }
-}
\ No newline at end of file
+}
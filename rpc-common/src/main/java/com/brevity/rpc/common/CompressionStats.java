@@ -0,0 +1,83 @@
+package com.brevity.rpc.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按服务统计的消息体压缩情况：本端压缩的消息数、压缩前后的字节数、压缩和解压耗费的CPU时间。
+ * 服务端统计的是该服务的响应，消费端统计的是该服务的请求，解压时间统计的是收到的对端消息
+ */
+public final class CompressionStats {
+
+    private static final Map<String, CompressionStats> STATS = new ConcurrentHashMap<>();
+
+    private final LongAdder compressCount = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressCount = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    private CompressionStats() {
+    }
+
+    /**
+     * 服务key对应的统计，不存在时创建
+     */
+    public static CompressionStats get(String serviceKey) {
+        return STATS.computeIfAbsent(serviceKey, k -> new CompressionStats());
+    }
+
+    /**
+     * 所有服务的统计，key为服务key
+     */
+    public static Map<String, CompressionStats> all() {
+        return Collections.unmodifiableMap(STATS);
+    }
+
+    public void recordCompress(int rawLength, int compressedLength, long nanos) {
+        compressCount.increment();
+        rawBytes.add(rawLength);
+        compressedBytes.add(compressedLength);
+        compressNanos.add(nanos);
+    }
+
+    public void recordDecompress(long nanos) {
+        decompressCount.increment();
+        decompressNanos.add(nanos);
+    }
+
+    public long getCompressCount() {
+        return compressCount.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * 压缩率：压缩后与压缩前的字节数之比，还没有压缩过时为1
+     */
+    public double getRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 1 : (double) compressedBytes.sum() / raw;
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressCount() {
+        return decompressCount.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+}
@@ -0,0 +1,108 @@
+package com.brevity.rpc.common;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端地址，由ChannelProvider统一创建，同一个ip:port只有一个实例，用作连接池的key，
+ * 同时记录消费端对该地址的调用统计，供负载均衡使用
+ */
+@Getter
+public final class Endpoint {
+    private final String host;
+    private final int port;
+    private final int hash;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder active = new LongAdder(); // 发往该地址尚未完成的请求数，LongAdder分段计数避免竞争
+
+    private static final double EWMA_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10); // 响应时间均值的衰减时间常数
+
+    @Getter(AccessLevel.NONE)
+    private volatile double latencyEwma; // 对峰值敏感的响应时间指数加权移动平均，单位纳秒
+    @Getter(AccessLevel.NONE)
+    private volatile long lastLatencyTime; // 上次更新latencyEwma的时间
+
+    private volatile LoadReport loadReport; // 服务端最近一次附带在响应中的负载报告，旧版本服务端没有
+
+    Endpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.hash = 31 * host.hashCode() + port;
+    }
+
+    public void requestStarted() {
+        active.increment();
+    }
+
+    public void requestFinished() {
+        active.decrement();
+    }
+
+    public long getActive() {
+        return active.sum();
+    }
+
+    /**
+     * 记录一次响应时间：比均值大时直接取该值，使慢节点立刻被发现；否则按距上次更新的时间衰减后加权
+     */
+    public void recordLatency(long latencyNanos) {
+        recordLatency(latencyNanos, System.nanoTime());
+    }
+
+    public synchronized void recordLatency(long latencyNanos, long now) {
+        double ewma = latencyEwma;
+        if (latencyNanos > ewma) {
+            latencyEwma = latencyNanos;
+        } else {
+            double w = Math.exp(-(now - lastLatencyTime) / EWMA_DECAY_NANOS);
+            latencyEwma = ewma * w + latencyNanos * (1 - w);
+        }
+        lastLatencyTime = now;
+    }
+
+    public double getLatencyEwma() {
+        return getLatencyEwma(System.nanoTime());
+    }
+
+    /**
+     * 按距上次样本的时间向0衰减后的响应时间均值。峰值只在有新样本时才会被拉低，
+     * 一次抖动后不再被选中的节点没有新样本，需要靠衰减重新得到流量；衰减到0后按没有样本的节点对待
+     */
+    public double getLatencyEwma(long nowNanos) {
+        double ewma = latencyEwma;
+        if (ewma == 0) {
+            return 0;
+        }
+        long elapsed = nowNanos - lastLatencyTime;
+        return elapsed <= 0 ? ewma : ewma * Math.exp(-elapsed / EWMA_DECAY_NANOS);
+    }
+
+    public void setLoadReport(LoadReport loadReport) {
+        this.loadReport = loadReport;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Endpoint)) {
+            return false;
+        }
+        Endpoint that = (Endpoint) o;
+        return port == that.port && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
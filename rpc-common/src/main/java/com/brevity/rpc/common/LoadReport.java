@@ -0,0 +1,25 @@
+package com.brevity.rpc.common;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+/**
+ * 服务端附带在响应中的负载报告，消费端按服务端地址保存最新的一份，供负载均衡使用
+ */
+@Getter
+@ToString
+public final class LoadReport implements Serializable {
+    private final int activeRequests; // 服务端正在处理的请求数
+    private final int queueSize; // 业务线程池中排队的请求数
+    private final int cpuLoad; // 最近的CPU使用率，千分比，-1表示未知
+    private final transient long time; // 本地生成或收到该报告的时间，System.nanoTime()
+
+    public LoadReport(int activeRequests, int queueSize, int cpuLoad) {
+        this.activeRequests = activeRequests;
+        this.queueSize = queueSize;
+        this.cpuLoad = cpuLoad;
+        this.time = System.nanoTime();
+    }
+}
@@ -0,0 +1,60 @@
+package com.brevity.rpc.common;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * 方法签名：服务名、版本、方法名和参数类型，用作查找方法调用器的key，哈希值在构造时计算好
+ */
+@Getter
+public final class MethodKey {
+    private final String className;
+    private final String serviceVersion;
+    private final String methodName;
+    private final Class<?>[] parameterTypes;
+    private final int hash;
+
+    public MethodKey(String className, String serviceVersion, String methodName, Class<?>[] parameterTypes) {
+        this.className = className;
+        this.serviceVersion = serviceVersion;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes == null ? new Class<?>[0] : parameterTypes;
+        int h = className.hashCode();
+        h = 31 * h + (serviceVersion == null ? 0 : serviceVersion.hashCode());
+        h = 31 * h + methodName.hashCode();
+        h = 31 * h + Arrays.hashCode(this.parameterTypes);
+        this.hash = h;
+    }
+
+    public static MethodKey of(RpcRequest request) {
+        return new MethodKey(request.getClassName(), request.getServiceVersion(), request.getMethodName(),
+                request.getParameterTypes());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MethodKey)) {
+            return false;
+        }
+        MethodKey that = (MethodKey) o;
+        return hash == that.hash
+                && className.equals(that.className)
+                && methodName.equals(that.methodName)
+                && (serviceVersion == null ? that.serviceVersion == null : serviceVersion.equals(that.serviceVersion))
+                && Arrays.equals(parameterTypes, that.parameterTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return className + "#" + serviceVersion + "." + methodName + Arrays.toString(parameterTypes);
+    }
+}
@@ -0,0 +1,68 @@
+package com.brevity.rpc.common;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个channel上等待响应的请求表，请求ID也由channel自己生成。
+ * 使用以long为key的开放寻址表，避免所有线程竞争全局的AtomicLong和ConcurrentHashMap，也避免Long装箱
+ */
+public class PendingRequestTable {
+
+    public static final AttributeKey<PendingRequestTable> KEY = AttributeKey.valueOf("pending_requests");
+
+    private final LongObjectHashMap<RpcFuture<RpcResponse>> table = new LongObjectHashMap<>();
+
+    private long idGen = 0;
+
+    private volatile int size = 0; // 供连接池选择channel时无锁读取
+
+    public static PendingRequestTable get(Channel channel) {
+        PendingRequestTable pendingTable = channel.attr(KEY).get();
+        if (pendingTable == null) {
+            PendingRequestTable newTable = new PendingRequestTable();
+            pendingTable = channel.attr(KEY).setIfAbsent(newTable);
+            if (pendingTable == null) {
+                pendingTable = newTable;
+            }
+        }
+        return pendingTable;
+    }
+
+    /**
+     * 生成请求ID并登记，超过上限时返回-1
+     */
+    public synchronized long add(RpcFuture<RpcResponse> future, int maxPending) {
+        if (table.size() >= maxPending) {
+            return -1;
+        }
+        long requestId = ++idGen;
+        table.put(requestId, future);
+        size = table.size();
+        return requestId;
+    }
+
+    public synchronized RpcFuture<RpcResponse> remove(long requestId) {
+        RpcFuture<RpcResponse> future = table.remove(requestId);
+        size = table.size();
+        return future;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 取出并清空所有等待中的请求，用于连接断开时让它们立即失败
+     */
+    public synchronized List<RpcFuture<RpcResponse>> removeAll() {
+        List<RpcFuture<RpcResponse>> futures = new ArrayList<>(table.values());
+        table.clear();
+        size = 0;
+        return futures;
+    }
+}
@@ -3,18 +3,31 @@ package com.brevity.rpc.common;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 @ConfigurationProperties(prefix = "rpc.consumer")
 public class RpcConsumerConfig {
 
     private int ioThreads = 2; // netty客户端IO线程数
 
+    // 异步调用结果的回调线程数，返回给用户的future在这些线程上完成，后续操作不会占用IO线程和超时时间轮线程；
+    // 为0时直接在IO线程或时间轮线程上完成，此时回调中不能有阻塞操作
+    private int callbackThreads = 4;
+
     private String registryType = "ZOOKEEPER"; // 注册中心类型
 
     private String registryAddress = "127.0.0.1:2181"; // 注册中心地址
 
+    // 服务列表本地快照目录，注册中心不可用时按上次的服务列表路由，默认为空，不使用快照。
+    // 目录不可写时只读取已有的快照，不再写入
+    private String registrySnapshotDir = "";
+
     private String loadBalanceType = "ConsistentHash"; // 负载均衡策略
 
+    private long peakEwmaInitialLatencyMillis = 500; // PeakEwma策略中还没有响应时间样本的节点按该响应时间计算代价，单位毫秒
+
     private int HEARTBEAT_TIME = 8; // 单位秒,该空闲时间内无读事件，触发心跳
 
     private int MAX_LOSE_HEARTBEAT_COUNT = 5; // 丢失心跳最大次数后，关闭连接
@@ -25,4 +38,34 @@ public class RpcConsumerConfig {
 
     private String SerializationType = "Kryo"; // 序列化方式
 
+    private List<String> kryoRegistrations = new ArrayList<>(); // Kryo预注册的类，每项为"类名:ID"，两端的类和ID必须一致
+
+    private int maxPendingRequests = 100000; // 整个客户端等待响应的请求数上限，超过后新的调用直接失败
+
+    private int maxPendingRequestsPerConnection = 20000; // 每个连接上等待响应的请求数上限，超过后新的调用直接失败
+
+    private int connectionsPerEndpoint = 1; // 每个服务端地址保持的最少连接数
+
+    private int maxConnectionsPerEndpoint = 4; // 每个服务端地址的最大连接数
+
+    private int connectionGrowThreshold = 200; // 最空闲连接上等待响应的请求数达到该值时，新建连接扩容
+
+    private int connectTimeoutMillis = 3000; // 建连超时时间，单位毫秒
+
+    private int connectFailureExcludeMillis = 5000; // 建连失败的服务端地址在该时间内不参与负载均衡，单位毫秒
+
+    private boolean warmupOnStartup = false; // 启动时预先完成服务发现、建连和心跳探测，完成后才标记为就绪
+
+    private int warmupTimeoutMillis = 10000; // 启动预热的最长等待时间，单位毫秒
+
+    private int writeBatchSize = 64; // 批量写出时每次flush最多包含的消息数
+
+    private int writeMaxDelayMicros = 0; // 批量写出时第一条消息最多等待的时间，单位微秒，0表示不等待
+
+    private int streamWindow = 64; // 流式调用的窗口，消费端缓存的元素数不超过该值
+
+    private int compressThreshold = 4096; // 配置了压缩的引用，请求消息体达到该字节数才压缩
+
+    private boolean batchEnabled = true; // 与服务端协商后把同一连接上排队的请求合并成一帧发送，每帧最多writeBatchSize条
+
 }
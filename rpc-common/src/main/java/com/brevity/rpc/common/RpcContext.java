@@ -0,0 +1,104 @@
+package com.brevity.rpc.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用上下文，保存在ThreadLocal中。
+ * 对于同步签名的接口，可以通过RpcContext.async(() -> helloFacade.helloRpc("brevity"))以异步方式发起调用，
+ * 调用线程不会阻塞等待响应。返回的future默认在客户端的回调线程池(rpc.consumer.callbackThreads)上完成，
+ * 也可以通过RpcContext.async(call, executor)指定完成future的线程池。
+ * 服务端执行方法时上下文中有调用方的截止时间，方法中发起的RPC调用的超时时间不会超过剩余时间
+ */
+public class RpcContext {
+
+    private static final ThreadLocal<RpcContext> LOCAL = ThreadLocal.withInitial(RpcContext::new);
+
+    private boolean async;
+
+    private CompletableFuture<?> future;
+
+    private Executor callbackExecutor; // 本次异步调用完成future的线程池，null表示使用客户端默认的回调线程池
+
+    private long deadline; // 截止时间，System.nanoTime()的值，0表示没有
+
+    public static RpcContext getContext() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 以异步方式执行call中发起的第一次RPC调用，返回该调用结果的future
+     */
+    public static <T> CompletableFuture<T> async(Callable<T> call) {
+        return async(call, null);
+    }
+
+    /**
+     * 以异步方式执行call中发起的第一次RPC调用，返回的future在executor上完成。
+     * 对返回CompletableFuture的接口方法同样生效
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> async(Callable<T> call, Executor executor) {
+        RpcContext context = getContext();
+        context.async = true;
+        context.future = null;
+        context.callbackExecutor = executor;
+        try {
+            call.call();
+        } catch (Exception e) {
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        } finally {
+            context.async = false;
+            context.callbackExecutor = null;
+        }
+        CompletableFuture<T> future = (CompletableFuture<T>) context.future;
+        context.future = null;
+        if (future == null) {
+            throw new IllegalStateException("no rpc call was made in RpcContext.async");
+        }
+        return future;
+    }
+
+    /**
+     * 代理发起调用前检查是否需要异步调用，异步标记只对一次调用生效
+     */
+    public boolean takeAsync() {
+        boolean isAsync = async;
+        async = false;
+        return isAsync;
+    }
+
+    /**
+     * 代理发起异步调用时取出指定的回调线程池，只对一次调用生效
+     */
+    public Executor takeCallbackExecutor() {
+        Executor executor = callbackExecutor;
+        callbackExecutor = null;
+        return executor;
+    }
+
+    public void setFuture(CompletableFuture<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * 服务端执行方法前设置调用方的截止时间，执行完后设置为0
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * 距截止时间的剩余毫秒数，已过截止时间时返回0，没有截止时间时返回-1
+     */
+    public long getRemainingMillis() {
+        if (deadline == 0) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+}
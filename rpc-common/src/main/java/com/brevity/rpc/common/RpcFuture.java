@@ -1,16 +1,74 @@
 package com.brevity.rpc.common;
 
-import io.netty.util.concurrent.Promise;
-import lombok.Data;
+import io.netty.util.Timeout;
+import lombok.Getter;
+import lombok.Setter;
 
-@Data
-public class RpcFuture<T> {
-    private Promise<T> promise;
-    private long timeout;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-    public RpcFuture(Promise<T> promise, long timeout) {
-        this.promise = promise;
+/**
+ * 异步调用的结果，基于CompletableFuture实现，由Netty IO线程收到响应后直接完成，
+ * 不再为每次调用创建DefaultEventLoop
+ */
+public class RpcFuture<T> extends CompletableFuture<T> {
+
+    @Getter
+    private final long timeout; // 超时时间，单位毫秒
+
+    @Setter
+    private volatile Timeout timeoutHandle; // 时间轮中对应的超时任务
+
+    @Getter
+    @Setter
+    private volatile Endpoint endpoint; // 请求发往的服务端地址，用于统计该地址的调用情况
+
+    @Getter
+    @Setter
+    private volatile boolean inFlight; // 是否计入了全局等待中的请求数，心跳探测不计入
+
+    @Getter
+    private final long startTime = System.nanoTime(); // 发起调用的时间，用于统计响应时间
+
+    @Getter
+    @Setter
+    private volatile MethodKey methodKey; // 连接支持方法ID时记录调用的方法，收到响应后据此学习或遗忘方法ID
+
+    @Getter
+    @Setter
+    private volatile CompressionStats compressionStats; // 所调用服务的压缩统计，记录响应的解压耗时
+
+    @Setter
+    private volatile Runnable fullFormRetry; // 以方法ID发出的请求被服务端拒绝时，按完整格式重发一次
+
+    public RpcFuture(long timeout) {
         this.timeout = timeout;
     }
 
+    /**
+     * 距离调用超时还剩的毫秒数，重发请求时沿用原来的截止时间
+     */
+    public long getRemainingMillis() {
+        return timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * 取出完整格式重发的任务，只能取到一次
+     */
+    public Runnable takeFullFormRetry() {
+        Runnable retry = fullFormRetry;
+        fullFormRetry = null;
+        return retry;
+    }
+
+    /**
+     * 响应已到达，取消时间轮中的超时任务
+     */
+    public void cancelTimeout() {
+        Timeout handle = timeoutHandle;
+        if (handle != null) {
+            handle.cancel();
+        }
+    }
+
 }
@@ -1,6 +1,11 @@
 package com.brevity.rpc.common;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 import java.io.Serializable;
 
@@ -14,4 +19,54 @@ public class RpcRequest implements Serializable {
     private String methodName; // 方法名
     private Object[] params; // 参数列表
     private Class<?>[] parameterTypes; // 参数类型
+
+    // 组成一致性哈希路由键的参数下标，只在消费端选择节点时使用，不参与序列化
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient int[] hashArguments;
+
+    public int[] hashArguments() {
+        return hashArguments;
+    }
+
+    public void hashArguments(int[] hashArguments) {
+        this.hashArguments = hashArguments;
+    }
+
+    // 方法签名，由代理按方法缓存，消费端用它查找连接上已学到的方法ID，不参与序列化
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient MethodKey methodKey;
+
+    public MethodKey methodKey() {
+        return methodKey;
+    }
+
+    public void methodKey(MethodKey methodKey) {
+        this.methodKey = methodKey;
+    }
+
+    // 服务key，由路由快照提供，负载均衡器据此查找按服务保存的状态，不必每次调用拼接字符串，不参与序列化
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient String serviceKey;
+
+    public String serviceKey() {
+        String key = serviceKey;
+        if (key == null) {
+            key = RpcServiceHelper.buildServiceKey(className, serviceVersion);
+            serviceKey = key;
+        }
+        return key;
+    }
+
+    public void serviceKey(String serviceKey) {
+        this.serviceKey = serviceKey;
+    }
 }
@@ -1,13 +1,135 @@
 package com.brevity.rpc.common;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import com.brevity.rpc.common.exception.RpcErrorMessageEnum;
+import com.brevity.rpc.common.exception.RpcServiceException;
+import io.netty.channel.Channel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RpcRequestHolder {
-    // RPC调用的Request工具类，用于生成全部唯一的消息ID和异步调用结果的存储
-    public static final AtomicLong REQUEST_ID_GEN = new AtomicLong(0);
-    public static final AtomicLong HEARTBEAT_ID_GEN = new AtomicLong(0);
-    public static final Map<Long, RpcFuture<RpcResponse>> REQUEST_MAP = new ConcurrentHashMap<>();
-    public static final Map<Long, RpcFuture<RpcResponse>> HEARTBBEAT_MAP = new ConcurrentHashMap<>();
+    // RPC调用的Request工具类，请求ID和等待中的请求由每个channel上的PendingRequestTable维护，这里负责超时管理
+
+    // 时间轮，每个等待中的请求在其中挂一个超时任务，到期后O(1)地失败并移除
+    private static final Timer TIMEOUT_TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("rpc-request-timeout", true), 10, TimeUnit.MILLISECONDS, 1024);
+
+    private static final LongAdder TIMEOUT_COUNT = new LongAdder(); // 超时的请求数
+    private static final LongAdder LATE_RESPONSE_COUNT = new LongAdder(); // 超时后才到达的响应数
+
+    // 全局等待中的请求数，与每个连接的上限同时生效，避免连接数增加后总的等待请求数随之成倍增长。
+    // 用LongAdder分段计数，调用线程不竞争同一个计数器；检查和计数不是原子的，上限是软限制，并发时可能略微超出
+    private static final LongAdder IN_FLIGHT = new LongAdder();
+
+    private static volatile int maxPendingRequests = 100000;
+
+    private static volatile int maxPendingRequestsPerConnection = 20000;
+
+    public static void init(int maxPendingRequests, int maxPendingRequestsPerConnection) {
+        RpcRequestHolder.maxPendingRequests = maxPendingRequests;
+        RpcRequestHolder.maxPendingRequestsPerConnection = maxPendingRequestsPerConnection;
+    }
+
+    /**
+     * 在channel上登记等待响应的请求并返回请求ID，同时按照future的超时时间(毫秒)在时间轮中挂上超时任务
+     */
+    public static long addRequest(Channel channel, RpcFuture<RpcResponse> future) {
+        if (IN_FLIGHT.sum() >= maxPendingRequests) {
+            throw new RpcServiceException(RpcErrorMessageEnum.TOO_MANY_PENDING_REQUESTS,
+                    "total " + maxPendingRequests);
+        }
+        future.setInFlight(true);
+        IN_FLIGHT.increment();
+        PendingRequestTable pendingTable = PendingRequestTable.get(channel);
+        long requestId = pendingTable.add(future, maxPendingRequestsPerConnection);
+        if (requestId < 0) {
+            future.setInFlight(false);
+            IN_FLIGHT.decrement();
+            throw new RpcServiceException(RpcErrorMessageEnum.TOO_MANY_PENDING_REQUESTS,
+                    "per connection " + maxPendingRequestsPerConnection);
+        }
+        Endpoint endpoint = channel.attr(ChannelProvider.ENDPOINT).get();
+        if (endpoint != null) {
+            future.setEndpoint(endpoint);
+            endpoint.requestStarted();
+        }
+        future.setTimeoutHandle(TIMEOUT_TIMER.newTimeout(timeout -> {
+            RpcFuture<RpcResponse> expired = pendingTable.remove(requestId);
+            if (expired != null) {
+                TIMEOUT_COUNT.increment();
+                finished(expired, true);
+                expired.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT));
+            }
+        }, Math.max(1, future.getRemainingMillis()), TimeUnit.MILLISECONDS));
+        return requestId;
+    }
+
+    /**
+     * 响应到达时移除对应的请求，返回null说明请求已经超时被移除，响应来晚了
+     */
+    public static RpcFuture<RpcResponse> removeRequest(Channel channel, long requestId) {
+        RpcFuture<RpcResponse> future = PendingRequestTable.get(channel).remove(requestId);
+        if (future == null) {
+            LATE_RESPONSE_COUNT.increment();
+        } else {
+            future.cancelTimeout();
+            finished(future, true);
+        }
+        return future;
+    }
+
+    /**
+     * 请求未能发送出去，直接失败并移除
+     */
+    public static void failRequest(Channel channel, long requestId, Throwable cause) {
+        RpcFuture<RpcResponse> future = PendingRequestTable.get(channel).remove(requestId);
+        if (future != null) {
+            future.cancelTimeout();
+            finished(future, false);
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 连接断开，该channel上所有等待中的请求立即失败
+     */
+    public static void failAll(Channel channel, Throwable cause) {
+        for (RpcFuture<RpcResponse> future : PendingRequestTable.get(channel).removeAll()) {
+            future.cancelTimeout();
+            finished(future, false);
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 请求已从等待表中移除，归还全局等待请求数并更新服务端地址上的统计。只有收到响应或超时才计入响应时间，
+     * 发送失败和断连是立即失败的，计入会让故障节点看起来很快
+     */
+    private static void finished(RpcFuture<RpcResponse> future, boolean recordLatency) {
+        if (future.isInFlight()) {
+            IN_FLIGHT.decrement();
+        }
+        Endpoint endpoint = future.getEndpoint();
+        if (endpoint != null) {
+            endpoint.requestFinished();
+            if (recordLatency) {
+                endpoint.recordLatency(System.nanoTime() - future.getStartTime());
+            }
+        }
+    }
+
+    public static int getPendingCount() {
+        return (int) IN_FLIGHT.sum();
+    }
+
+    public static long getTimeoutCount() {
+        return TIMEOUT_COUNT.sum();
+    }
+
+    public static long getLateResponseCount() {
+        return LATE_RESPONSE_COUNT.sum();
+    }
 }
@@ -3,6 +3,9 @@ package com.brevity.rpc.common;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 @ConfigurationProperties(prefix = "rpc.service")
 public class RpcServiceConfig {
@@ -25,5 +28,13 @@ public class RpcServiceConfig {
 
     private int allIdleTimeSeconds = 30; // 超过该空闲时间无读写事件发生，则关闭连接
 
+    private List<String> kryoRegistrations = new ArrayList<>(); // Kryo预注册的类，每项为"类名:ID"，两端的类和ID必须一致
+
+    private int writeBatchSize = 64; // 批量写出时每次flush最多包含的消息数
+
+    private int writeMaxDelayMicros = 0; // 批量写出时第一条消息最多等待的时间，单位微秒，0表示不等待
+
+    private int compressThreshold = 4096; // 配置了压缩的服务，响应消息体达到该字节数才压缩
+
 }
 
@@ -1,6 +1,10 @@
 package com.brevity.rpc.common;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * 描述服务的元数据类，用来服务注册，服务发现
@@ -23,4 +27,10 @@ public class ServiceMeta {
 
     private long warmup; // 默认为5分钟
 
+    // 消费端缓存的服务端地址，由ChannelProvider解析一次后复用，不参与序列化
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    transient volatile Endpoint endpoint;
+
 }
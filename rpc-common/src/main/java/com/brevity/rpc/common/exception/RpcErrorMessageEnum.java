@@ -16,6 +16,7 @@ public enum RpcErrorMessageEnum {
     SERVICE_CALL_FAILURE("服务调用失败"),
     SERVICE_CAN_NOT_FOUND("没有找到指定的服务"),
     SERVICE_CALL_TIMEOUT("服务调用超时"),
+    TOO_MANY_PENDING_REQUESTS("等待响应的请求数超过上限"),
     REGISTERY_SERVER_ERROR("注册中心异常"),
     REGISTER_SERVICE_FAIL("注册服务失败"),
     /**
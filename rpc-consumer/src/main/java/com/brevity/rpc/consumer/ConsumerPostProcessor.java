@@ -1,27 +1,41 @@
 package com.brevity.rpc.consumer;
 
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcServiceHelper;
+import com.brevity.rpc.compress.CompressionTypeEnum;
 import com.brevity.rpc.consumer.annotation.RpcReference;
 import com.brevity.rpc.registry.RegistryFactory;
 import com.brevity.rpc.registry.RegistryService;
 import com.brevity.rpc.registry.RegistryType;
 import com.brevity.rpc.serialization.SerializationTypeEnum;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.stereotype.Component;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * 对带有RpcReference注解的bean生成代理对象
+ * 对带有RpcReference注解的bean生成代理对象，开启启动预热时在所有单例创建完成后预热引用的服务
  */
 @Component
-public class ConsumerPostProcessor implements BeanPostProcessor {
+public class ConsumerPostProcessor implements BeanPostProcessor, SmartInitializingSingleton {
 
     @Autowired
     private RpcConsumer rpcConsumer;
 
+    // 引用的服务，key为服务key，用于启动预热
+    private final Map<String, RpcRequest> references = new ConcurrentHashMap<>();
+
+    private volatile RegistryService registryService;
+
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
         Class<?> targetClass = bean.getClass();
@@ -29,16 +43,26 @@ public class ConsumerPostProcessor implements BeanPostProcessor {
         for (Field declaredField : declaredFields) {
             RpcReference rpcReference = declaredField.getAnnotation(RpcReference.class);
             if (rpcReference != null) {
+                validateHashArguments(beanName, declaredField, rpcReference.hashArguments());
                 RegistryService registryService = RegistryFactory.getInstance(
                         rpcConsumer.consumerConfig.getRegistryAddress(),
-                        RegistryType.valueOf(rpcConsumer.consumerConfig.getRegistryType()));
+                        RegistryType.valueOf(rpcConsumer.consumerConfig.getRegistryType()),
+                        rpcConsumer.consumerConfig.getRegistrySnapshotDir());
                 Object proxyInstance = Proxy.newProxyInstance(
                         rpcReference.getClass().getClassLoader(),
                         new Class<?>[]{declaredField.getType()},
                         new RpcInvokerProxy(rpcReference.serviceVersion(), rpcReference.timeout(),
+                                rpcReference.hashArguments(),
+                                (byte) CompressionTypeEnum.valueOf(rpcReference.compression()).getType(),
                                 registryService, rpcConsumer,
                                 SerializationTypeEnum.valueOf(rpcConsumer.consumerConfig.getSerializationType()))
                 );
+                this.registryService = registryService;
+                RpcRequest reference = new RpcRequest();
+                reference.setClassName(declaredField.getType().getName());
+                reference.setServiceVersion(rpcReference.serviceVersion());
+                references.putIfAbsent(RpcServiceHelper.buildServiceKey(reference.getClassName(),
+                        reference.getServiceVersion()), reference);
                 declaredField.setAccessible(true);
                 try {
                     declaredField.set(bean, proxyInstance);
@@ -50,4 +74,51 @@ public class ConsumerPostProcessor implements BeanPostProcessor {
         }
         return bean;
     }
+
+    /**
+     * hashArguments对接口的所有方法生效，每个下标都必须是每个方法的合法参数下标；
+     * 参数类型没有重写hashCode时，相同的值在不同进程中哈希不同，不能作为路由键
+     */
+    static void validateHashArguments(String beanName, Field field, int[] hashArguments) {
+        for (Method method : field.getType().getMethods()) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int index : hashArguments) {
+                if (index < 0 || index >= parameterTypes.length) {
+                    throw new BeanCreationException(beanName, "@RpcReference " + field.getName()
+                            + " hashArguments index " + index + " out of range for method " + method);
+                }
+                if (hasIdentityHashCode(parameterTypes[index])) {
+                    throw new BeanCreationException(beanName, "@RpcReference " + field.getName()
+                            + " hashArguments index " + index + " of method " + method + " has type "
+                            + parameterTypes[index].getName() + " which does not override hashCode");
+                }
+            }
+        }
+    }
+
+    /**
+     * 具体类型且hashCode直接继承自Object。接口、抽象类和Object的实际类型在调用时才知道，不做判断；
+     * 数组和枚举由负载均衡器按内容和名称计算哈希
+     */
+    private static boolean hasIdentityHashCode(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()
+                || Modifier.isAbstract(type.getModifiers()) || type == Object.class) {
+            return false;
+        }
+        try {
+            return type.getMethod("hashCode").getDeclaringClass() == Object.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 所有单例创建完成后、应用启动完成前执行预热，首个请求不再承担服务发现和建连的开销
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (rpcConsumer.consumerConfig.isWarmupOnStartup()) {
+            rpcConsumer.warmup(references.values(), registryService);
+        }
+    }
 }
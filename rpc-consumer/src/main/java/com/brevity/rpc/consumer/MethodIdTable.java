@@ -0,0 +1,51 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.MethodKey;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 连接上已学到的方法ID。服务端在响应中告知方法的ID，之后同一连接上的请求只携带ID和参数；
+ * 方法ID只在一个服务端进程内有效，因此按连接保存，连接断开后随channel一起丢弃
+ */
+final class MethodIdTable {
+
+    private static final AttributeKey<Map<MethodKey, Integer>> KEY = AttributeKey.valueOf("method_ids");
+
+    private MethodIdTable() {
+    }
+
+    /**
+     * 返回方法ID，还未学到时返回0
+     */
+    static int get(Channel channel, MethodKey methodKey) {
+        Integer id = ids(channel).get(methodKey);
+        return id == null ? 0 : id;
+    }
+
+    static void put(Channel channel, MethodKey methodKey, int id) {
+        ids(channel).put(methodKey, id);
+    }
+
+    /**
+     * 用ID发出的调用失败时忘掉该方法的ID，下次调用回退到完整格式并重新学习
+     */
+    static void remove(Channel channel, MethodKey methodKey) {
+        ids(channel).remove(methodKey);
+    }
+
+    private static Map<MethodKey, Integer> ids(Channel channel) {
+        Map<MethodKey, Integer> ids = channel.attr(KEY).get();
+        if (ids == null) {
+            ids = new ConcurrentHashMap<>();
+            Map<MethodKey, Integer> old = channel.attr(KEY).setIfAbsent(ids);
+            if (old != null) {
+                ids = old;
+            }
+        }
+        return ids;
+    }
+}
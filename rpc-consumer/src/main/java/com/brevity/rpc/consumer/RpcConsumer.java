@@ -5,23 +5,39 @@ import com.brevity.rpc.codec.RpcEncoder;
 import com.brevity.rpc.common.*;
 import com.brevity.rpc.common.exception.RpcErrorMessageEnum;
 import com.brevity.rpc.common.exception.RpcServiceException;
+import com.brevity.rpc.handler.RpcChannelWriter;
+import com.brevity.rpc.protocol.Capabilities;
+import com.brevity.rpc.protocol.MsgExtensions;
 import com.brevity.rpc.protocol.RpcProtocol;
 import com.brevity.rpc.registry.RegistryService;
 import com.brevity.rpc.registry.loadbalancer.LoadBalancerFactory;
 import com.brevity.rpc.registry.loadbalancer.LoadBalancerType;
 import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
+import com.brevity.rpc.serialization.KryoSerialization;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 public class RpcConsumer {
@@ -30,10 +46,12 @@ public class RpcConsumer {
     private final EventLoopGroup eventLoopGroup;
     private final ChannelProvider channelProvider;
     private final ServiceLoadBalancer<ServiceMeta> loadBalancer;
-    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<String, ServiceRoute> routeMap = new ConcurrentHashMap<>();
+    private final ExecutorService callbackExecutor; // 完成异步调用结果的线程池，callbackThreads为0时为null
 
     public static final AttributeKey<Integer> LOSE_HEARTBEAT_COUNT = AttributeKey.valueOf("heartbeat_count");
     public final RpcConsumerConfig consumerConfig;
+    private volatile boolean ready; // 未开启启动预热时直接就绪，否则预热结束后就绪
 
     /**
      * 初始化RPC客户端
@@ -41,19 +59,31 @@ public class RpcConsumer {
     public RpcConsumer(RpcConsumerConfig consumerConfig) {
         this.consumerConfig = consumerConfig;
         channelProvider = ChannelProvider.getInstance();
-        loadBalancer = LoadBalancerFactory.getInstance(LoadBalancerType.valueOf(consumerConfig.getLoadBalanceType()));
+        ready = !consumerConfig.isWarmupOnStartup();
+        callbackExecutor = consumerConfig.getCallbackThreads() > 0 ? Executors.newFixedThreadPool(
+                consumerConfig.getCallbackThreads(), new DefaultThreadFactory("rpc-callback", true)) : null;
+        RpcRequestHolder.init(consumerConfig.getMaxPendingRequests(),
+                consumerConfig.getMaxPendingRequestsPerConnection());
+        KryoSerialization.register(consumerConfig.getKryoRegistrations());
+        loadBalancer = LoadBalancerFactory.getInstance(LoadBalancerType.valueOf(consumerConfig.getLoadBalanceType()),
+                consumerConfig);
         bootstrap = new Bootstrap();
         eventLoopGroup = new NioEventLoopGroup(consumerConfig.getIoThreads());
         bootstrap.group(eventLoopGroup).channel(NioSocketChannel.class)
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, consumerConfig.getConnectTimeoutMillis())
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) throws Exception {
+                        socketChannel.attr(PendingRequestTable.KEY).set(new PendingRequestTable());
+                        socketChannel.attr(RpcChannelWriter.KEY).set(new RpcChannelWriter(socketChannel,
+                                consumerConfig.getWriteBatchSize(), consumerConfig.getWriteMaxDelayMicros()));
                         socketChannel.pipeline()
+                                .addLast(new FlushConsolidationHandler(consumerConfig.getWriteBatchSize(), false))
                                 .addLast(new IdleStateHandler(consumerConfig.getHEARTBEAT_TIME(),
                                         0, 0))
-                                .addLast(new RpcEncoder())
+                                .addLast(new RpcEncoder(consumerConfig.getCompressThreshold()))
                                 .addLast(new RpcDecoder())
                                 .addLast(new RpcReponseHandler(bootstrap, consumerConfig))
                         ;
@@ -64,29 +94,175 @@ public class RpcConsumer {
             public void run() {
                 log.warn("RpcConsumer stop!!!");
                 eventLoopGroup.shutdownGracefully();
+                if (callbackExecutor != null) {
+                    callbackExecutor.shutdown();
+                }
             }
         }));
     }
 
     /**
-     * 服务发现->高可用->负载均衡
+     * 异步调用结果默认的回调线程池，为null时在IO线程上完成
+     */
+    public ExecutorService getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * 是否已就绪，可用于编排系统在预热完成前不导入流量
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 启动预热：对所有引用的服务完成服务发现，并行连接所有可用的服务端，每个地址建满最少连接数后
+     * 做一轮心跳探测。预热尽力而为，失败的地址只打印日志，超时后同样标记为就绪
+     */
+    public void warmup(Collection<RpcRequest> references, RegistryService registryService) {
+        long start = System.currentTimeMillis();
+        Set<Endpoint> endpoints = new LinkedHashSet<>();
+        for (RpcRequest reference : references) {
+            try {
+                for (ServiceMeta serviceMeta : channelProvider.chooseHAServiceMeta(
+                        registryService.lookupService(reference))) {
+                    endpoints.add(channelProvider.endpoint(serviceMeta));
+                }
+            } catch (Exception e) {
+                log.warn("warmup lookup service {} failed, cause: {}", reference.getClassName(), e.toString());
+            }
+        }
+        List<CompletableFuture<RpcResponse>> futures = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            ChannelProvider.Node node = channelProvider.getNode(endpoint);
+            futures.add(warmupEndpoint(node, Math.max(1, consumerConfig.getConnectionsPerEndpoint()))
+                    .thenCompose(channel -> RpcReponseHandler.ping(channel, consumerConfig)));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                    .get(consumerConfig.getWarmupTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("warmup not fully completed, cause: {}", e.toString());
+        }
+        int warmed = 0;
+        for (CompletableFuture<RpcResponse> future : futures) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                warmed++;
+            }
+        }
+        ready = true;
+        log.info("consumer warmup finished in {}ms, {}/{} endpoints ready",
+                System.currentTimeMillis() - start, warmed, endpoints.size());
+    }
+
+    /**
+     * 建连直到连接池达到最少连接数，返回其中一个channel
+     */
+    private CompletableFuture<Channel> warmupEndpoint(ChannelProvider.Node node, int attempts) {
+        Channel channel = node.select();
+        if (channel != null && (node.size() >= consumerConfig.getConnectionsPerEndpoint() || attempts <= 0)) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        if (attempts <= 0) {
+            CompletableFuture<Channel> future = new CompletableFuture<>();
+            future.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                    node.getEndpoint().toString()));
+            return future;
+        }
+        return connect(node).thenCompose(c -> warmupEndpoint(node, attempts - 1));
+    }
+
+    /**
+     * 获取服务的路由，同一个服务的所有代理方法共享
+     */
+    public ServiceRoute getRoute(String className, String serviceVersion, RegistryService registryService) {
+        String serviceKey = RpcServiceHelper.buildServiceKey(className, serviceVersion);
+        ServiceRoute route = routeMap.get(serviceKey);
+        if (route == null) {
+            route = new ServiceRoute(serviceKey, className, serviceVersion, registryService);
+            ServiceRoute old = routeMap.putIfAbsent(serviceKey, route);
+            if (old != null) {
+                route = old;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * 路由快照->负载均衡，请求ID由选中的channel分配。服务发现和高可用过滤的结果在快照中，
+     * 只有服务列表或节点可用状态变化后才重新计算
+     */
+    public void sendRequest(RpcProtocol<RpcRequest> protocol, RpcFuture<RpcResponse> rpcFuture,
+                            ServiceRoute route) throws Exception {
+        sendRequest(protocol, rpcFuture, route, null);
+    }
+
+    /**
+     * 流式调用：stream在请求发出前登记到选中的channel上，连接协商了流式能力时在请求中带上初始窗口
+     */
+    public void sendRequest(RpcProtocol<RpcRequest> protocol, RpcFuture<RpcResponse> rpcFuture,
+                            ServiceRoute route, RpcStream<?> stream) throws Exception {
+        sendRequest(protocol, rpcFuture, route, stream, true);
+    }
+
+    /**
+     * useMethodId为false时总是发送完整格式，用于服务端不认识方法ID后的重发
      */
-    public void sendRequest(RpcProtocol<RpcRequest> protocol, RegistryService registryService) throws Exception {
+    private void sendRequest(RpcProtocol<RpcRequest> protocol, RpcFuture<RpcResponse> rpcFuture,
+                             ServiceRoute route, RpcStream<?> stream, boolean useMethodId) throws Exception {
         RpcRequest request = protocol.getBody();
-        // 服务发现
-        List<ServiceMeta> serviceMetaList = registryService.lookupService(request);
-        // 高可用过滤
-        List<ServiceMeta> hAServiceMetaList = channelProvider.chooseHAServiceMeta(serviceMetaList);
+        ServiceRoute.Snapshot snapshot = route.snapshot();
+        request.serviceKey(snapshot.getServiceKey());
         // 负载均衡
-        ServiceMeta serviceMeta = loadBalancer.select(hAServiceMetaList, protocol.getBody());
+        ServiceMeta serviceMeta = loadBalancer.select(snapshot.getAvailable(), request);
         if (serviceMeta != null) {
             Channel channel = getChannel(serviceMeta);
-            channel.writeAndFlush(protocol).addListener((ChannelFutureListener) future -> {
+            long requestId = RpcRequestHolder.addRequest(channel, rpcFuture);
+            protocol.getHeader().setRequestID(requestId);
+            MsgExtensions extensions = protocol.getExtensions() != null ? protocol.getExtensions()
+                    : new MsgExtensions();
+            if (extensions.getCompression() != 0 && !Capabilities.isEnabled(channel, Capabilities.COMPRESSION)) {
+                // 旧版本服务端不能解压
+                extensions.setCompression((byte) 0);
+            }
+            if (Capabilities.isEnabled(channel, Capabilities.DEADLINE)) {
+                // 服务端据此丢弃排队期间已经超时的请求
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rpcFuture.getStartTime());
+                extensions.setTimeoutMillis((int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                        rpcFuture.getTimeout() - elapsed)));
+            }
+            if (stream != null) {
+                stream.attach(channel, requestId, rpcFuture);
+                if (Capabilities.isEnabled(channel, Capabilities.STREAM)) {
+                    extensions.setStreamWindow(stream.getWindow());
+                }
+            }
+            MethodKey methodKey = request.methodKey();
+            if (methodKey != null && Capabilities.isEnabled(channel, Capabilities.METHOD_ID)) {
+                rpcFuture.setMethodKey(methodKey);
+                int methodId = useMethodId ? MethodIdTable.get(channel, methodKey) : 0;
+                if (methodId > 0) {
+                    // 已学到方法ID，请求中省略类名、版本、方法名和参数类型
+                    RpcRequest compact = new RpcRequest();
+                    compact.setParams(request.getParams());
+                    protocol.setBody(compact);
+                    extensions.setMethodId(methodId);
+                    if (stream == null) {
+                        // 流式调用的stream已登记在原请求ID上，不重发
+                        rpcFuture.setFullFormRetry(() -> retryInFullForm(protocol, request, rpcFuture, route));
+                    }
+                }
+            }
+            protocol.setExtensions(extensions.isEmpty() ? null : extensions);
+            RpcChannelWriter.get(channel).write(protocol, channel.newPromise()).addListener((ChannelFutureListener) future -> {
                 if (future.isSuccess()) {
                     log.info("channel: " + channel.id().toString() + " send msg {id:" + protocol.getHeader().getRequestID() + "}");
                 } else {
                     log.error("send msg {id:" + protocol.getHeader().getRequestID() + "} failed, cause: " + future.cause());
-                    throw new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_FAILURE);
+                    RpcRequestHolder.failRequest(channel, requestId,
+                            new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_FAILURE));
                 }
             });
         } else {
@@ -96,31 +272,110 @@ public class RpcConsumer {
     }
 
     /**
-     * 复用channel
+     * 服务端不认识方法ID时，用原来的future和剩余的超时时间按完整格式重发。由IO线程触发，
+     * 重发可能需要等待建连，放到回调线程池中执行
+     */
+    private void retryInFullForm(RpcProtocol<RpcRequest> protocol, RpcRequest request,
+                                 RpcFuture<RpcResponse> rpcFuture, ServiceRoute route) {
+        Runnable retry = () -> {
+            if (rpcFuture.getRemainingMillis() <= 0) {
+                rpcFuture.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT));
+                return;
+            }
+            protocol.setBody(request);
+            if (protocol.getExtensions() != null) {
+                protocol.getExtensions().setMethodId(0);
+            }
+            try {
+                sendRequest(protocol, rpcFuture, route, null, false);
+            } catch (Exception e) {
+                log.error("retry request in full form failed, cause: " + e);
+                rpcFuture.completeExceptionally(e);
+            }
+        };
+        if (callbackExecutor != null) {
+            callbackExecutor.execute(retry);
+        } else {
+            ForkJoinPool.commonPool().execute(retry);
+        }
+    }
+
+    /**
+     * 从服务端地址对应的连接池中选择channel，连接池为空时等待建连完成，负载高时异步扩容。
+     * 建连按地址进行，慢的或宕机的服务端不会阻塞对其他服务端的调用
      */
     private Channel getChannel(ServiceMeta serviceMeta) throws RpcServiceException {
-        Channel channel = channelProvider.get(serviceMeta);
+        Endpoint endpoint = channelProvider.endpoint(serviceMeta);
+        ChannelProvider.Node node = channelProvider.getNode(endpoint);
+        Channel channel = node.select();
         if (channel == null) {
             try {
-                lock.lock();
-                channel = channelProvider.get(serviceMeta);
-                if (channel == null) {
-                    ChannelFuture future = null;
-                    try {
-                        future = bootstrap.connect(serviceMeta.getServiceAddr(), serviceMeta.getServicePort()).sync();
-                        log.info("connect rpc server {} on port {} success.", serviceMeta.getServiceAddr(), serviceMeta.getServicePort());
-                        channel = future.channel();
-                        channel.attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(0);
-                        channelProvider.put((InetSocketAddress) channel.remoteAddress(), channel);
-                    } catch (Exception e) {
-                        log.error("connect rpc server {} on port {} failed.", serviceMeta.getServiceAddr(), serviceMeta.getServicePort());
-                        throw new RpcServiceException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE);
-                    }
-                }
-            } finally {
-                lock.unlock();
+                channel = connect(node).get(consumerConfig.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RpcServiceException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE);
+            } catch (ExecutionException | TimeoutException e) {
+                log.error("connect rpc server {} on port {} failed.", endpoint.getHost(), endpoint.getPort());
+                throw new RpcServiceException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE);
             }
         }
+        if (shouldGrow(node, channel)) {
+            connect(node);
+        }
         return channel;
     }
-}
\ No newline at end of file
+
+    /**
+     * 连接数低于下限，或最空闲的连接上等待响应的请求数也已达到阈值且未到上限时扩容
+     */
+    private boolean shouldGrow(ChannelProvider.Node node, Channel selected) {
+        int size = node.size();
+        if (size < consumerConfig.getConnectionsPerEndpoint()) {
+            return true;
+        }
+        return size < consumerConfig.getMaxConnectionsPerEndpoint()
+                && PendingRequestTable.get(selected).size() >= consumerConfig.getConnectionGrowThreshold();
+    }
+
+    /**
+     * 向服务端地址建立一个新连接，已有建连在进行时直接返回它的future
+     */
+    private CompletableFuture<Channel> connect(ChannelProvider.Node node) {
+        for (; ; ) {
+            CompletableFuture<Channel> future = node.getConnectFuture();
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            if (node.startConnect(future)) {
+                doConnect(node, future);
+                return future;
+            }
+        }
+    }
+
+    private void doConnect(ChannelProvider.Node node, CompletableFuture<Channel> future) {
+        Endpoint endpoint = node.getEndpoint();
+        bootstrap.connect(endpoint.getHost(), endpoint.getPort()).addListener((ChannelFutureListener) channelFuture -> {
+            Channel channel = channelFuture.channel();
+            channel.attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(0);
+            if (channelFuture.isSuccess() && channelProvider.put(endpoint, channel)) {
+                log.info("connect rpc server {} success, connection pool size {}", endpoint, node.size());
+                node.setExcludedUntil(0);
+                node.connectFinished(future);
+                future.complete(channel);
+            } else if (channelFuture.isSuccess()) {
+                // 建连成功后、加入连接池前连接已经断开
+                node.connectFinished(future);
+                future.completeExceptionally(new RpcServiceException(
+                        RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, endpoint + " closed after connect"));
+            } else {
+                log.error("connect rpc server {} failed, cause: {}", endpoint, channelFuture.cause().toString());
+                // 建连失败的地址暂时不参与负载均衡，避免后续调用继续等待
+                node.setExcludedUntil(System.currentTimeMillis() + consumerConfig.getConnectFailureExcludeMillis());
+                node.connectFinished(future);
+                future.completeExceptionally(channelFuture.cause());
+            }
+        });
+    }
+}
@@ -3,19 +3,21 @@ package com.brevity.rpc.consumer;
 import com.brevity.rpc.common.*;
 import com.brevity.rpc.common.exception.RpcErrorMessageEnum;
 import com.brevity.rpc.common.exception.RpcServiceException;
+import com.brevity.rpc.protocol.MsgExtensions;
 import com.brevity.rpc.protocol.MsgHeader;
 import com.brevity.rpc.protocol.MsgType;
 import com.brevity.rpc.protocol.ProtocolConstants;
 import com.brevity.rpc.protocol.RpcProtocol;
 import com.brevity.rpc.registry.RegistryService;
 import com.brevity.rpc.serialization.SerializationTypeEnum;
-import io.netty.channel.DefaultEventLoop;
-import io.netty.util.concurrent.DefaultPromise;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * 代理类
@@ -27,11 +29,19 @@ public class RpcInvokerProxy implements InvocationHandler {
     private final RegistryService registryService;
     private final RpcConsumer rpcConsumer;
     private final SerializationTypeEnum serializationType;
+    private final int[] hashArguments;
+    private final byte compression; // 请求消息体的压缩算法
+    private final ConcurrentHashMap<Class<?>, ServiceRoute> routes = new ConcurrentHashMap<>(); // 按接口缓存路由
+    private final ConcurrentHashMap<Method, MethodKey> methodKeys = new ConcurrentHashMap<>(); // 按方法缓存签名
+    private final ConcurrentHashMap<Class<?>, CompressionStats> compressionStats = new ConcurrentHashMap<>();
 
-    public RpcInvokerProxy(String serviceVersion, long timeout, RegistryService registryService,
-                           RpcConsumer rpcConsumer, SerializationTypeEnum serializationType) {
+    public RpcInvokerProxy(String serviceVersion, long timeout, int[] hashArguments, byte compression,
+                           RegistryService registryService, RpcConsumer rpcConsumer,
+                           SerializationTypeEnum serializationType) {
         this.serviceVersion = serviceVersion;
         this.timeout = timeout;
+        this.hashArguments = hashArguments;
+        this.compression = compression;
         this.registryService = registryService;
         this.rpcConsumer = rpcConsumer;
         this.serializationType = serializationType;
@@ -41,10 +51,8 @@ public class RpcInvokerProxy implements InvocationHandler {
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         RpcProtocol<RpcRequest> protocol = new RpcProtocol<>();
         MsgHeader header = new MsgHeader();
-        long requestId = RpcRequestHolder.REQUEST_ID_GEN.incrementAndGet();
         header.setMagic(ProtocolConstants.MAGIC);
         header.setVersion(ProtocolConstants.VERSION);
-        header.setRequestID(requestId);
         header.setStatus((byte) 0x1);
         header.setSerialization((byte) serializationType.getType());
         header.setMsgType((byte) MsgType.REQUEST.getType());
@@ -56,18 +64,136 @@ public class RpcInvokerProxy implements InvocationHandler {
         request.setMethodName(method.getName());
         request.setParameterTypes(method.getParameterTypes());
         request.setParams(args);
+        request.hashArguments(hashArguments);
+        request.methodKey(methodKey(method));
         protocol.setBody(request);
 
-        RpcFuture<RpcResponse> future = new RpcFuture<>(new DefaultPromise<>(new DefaultEventLoop()), timeout);
-        RpcRequestHolder.REQUEST_MAP.put(requestId, future);
+        // 在服务端方法中发起的嵌套调用继承调用方剩余的超时时间
+        long callTimeout = timeout;
+        long remaining = RpcContext.getContext().getRemainingMillis();
+        if (remaining >= 0 && remaining < callTimeout) {
+            callTimeout = remaining;
+        }
+        RpcFuture<RpcResponse> future = new RpcFuture<>(callTimeout);
+        // 调用方的截止时间已过，嵌套调用不再发出，服务端收到也只会丢弃
+        RpcServiceException deadlineExceeded = null;
+        if (remaining == 0) {
+            deadlineExceeded = new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT,
+                    "deadline exceeded before calling " + request.getClassName() + "#" + request.getMethodName());
+            future.completeExceptionally(deadlineExceeded);
+        }
+        CompressionStats stats = compressionStats(method.getDeclaringClass());
+        future.setCompressionStats(stats);
+        if (compression != 0) {
+            MsgExtensions extensions = new MsgExtensions();
+            extensions.setCompression(compression);
+            extensions.setCompressionStats(stats);
+            protocol.setExtensions(extensions);
+        }
+        if (Iterator.class.equals(method.getReturnType())) {
+            // 流式调用：立即返回迭代器，元素在服务端按窗口陆续发送，超时时间限制的是整个流
+            if (deadlineExceeded != null) {
+                throw deadlineExceeded;
+            }
+            RpcStream<Object> stream = new RpcStream<>(rpcConsumer.consumerConfig.getStreamWindow());
+            rpcConsumer.sendRequest(protocol, future, route(method.getDeclaringClass()), stream);
+            return stream;
+        }
+        boolean returnFuture = CompletableFuture.class.equals(method.getReturnType());
+        boolean async = RpcContext.getContext().takeAsync();
+        Executor callbackExecutor = RpcContext.getContext().takeCallbackExecutor();
+        if (returnFuture || async) {
+            // 异步调用：不阻塞调用线程。响应处理器在IO线程上完成内部的future，超时则在时间轮线程上完成，
+            // 返回给用户的future切换到回调线程池上完成，用户的后续操作不会阻塞IO线程和其他请求的超时处理
+            try {
+                if (deadlineExceeded == null) {
+                    rpcConsumer.sendRequest(protocol, future, route(method.getDeclaringClass()));
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            if (callbackExecutor == null) {
+                callbackExecutor = rpcConsumer.getCallbackExecutor();
+            }
+            CompletableFuture<Object> resultFuture = callbackExecutor == null
+                    ? future.thenApply(RpcResponse::getData)
+                    : future.thenApplyAsync(RpcResponse::getData, callbackExecutor);
+            if (returnFuture) {
+                return resultFuture;
+            }
+            RpcContext.getContext().setFuture(resultFuture);
+            return defaultValue(method.getReturnType());
+        }
         try {
-            rpcConsumer.sendRequest(protocol, this.registryService);
-            return future.getPromise().get(future.getTimeout(), TimeUnit.SECONDS).getData();
-        } catch (Exception e) {
-            if (e instanceof TimeoutException) {
-                throw new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT);
+            if (deadlineExceeded == null) {
+                rpcConsumer.sendRequest(protocol, future, route(method.getDeclaringClass()));
             }
-            throw e;
+            // 超时由时间轮负责，到期后future以SERVICE_CALL_TIMEOUT异常结束并从等待表中移除
+            return future.get().getData();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ServiceRoute route(Class<?> serviceClass) {
+        ServiceRoute route = routes.get(serviceClass);
+        if (route == null) {
+            route = rpcConsumer.getRoute(serviceClass.getName(), serviceVersion, registryService);
+            ServiceRoute old = routes.putIfAbsent(serviceClass, route);
+            if (old != null) {
+                route = old;
+            }
+        }
+        return route;
+    }
+
+    private CompressionStats compressionStats(Class<?> serviceClass) {
+        CompressionStats stats = compressionStats.get(serviceClass);
+        if (stats == null) {
+            stats = CompressionStats.get(RpcServiceHelper.buildServiceKey(serviceClass.getName(), serviceVersion));
+            compressionStats.put(serviceClass, stats);
+        }
+        return stats;
+    }
+
+    private MethodKey methodKey(Method method) {
+        MethodKey methodKey = methodKeys.get(method);
+        if (methodKey == null) {
+            methodKey = new MethodKey(method.getDeclaringClass().getName(), serviceVersion, method.getName(),
+                    method.getParameterTypes());
+            methodKeys.put(method, methodKey);
+        }
+        return methodKey;
+    }
+
+    /**
+     * 异步调用时代理方法先返回的占位值，基本类型不能返回null
+     */
+    private static Object defaultValue(Class<?> returnType) {
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == char.class) {
+            return (char) 0;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == float.class) {
+            return 0F;
         }
+        return 0D;
     }
 }
\ No newline at end of file
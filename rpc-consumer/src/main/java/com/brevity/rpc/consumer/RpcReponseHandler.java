@@ -9,14 +9,11 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.Attribute;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 /**
  * 响应处理器
@@ -40,17 +37,62 @@ public class RpcReponseHandler extends SimpleChannelInboundHandler<RpcProtocol<R
     protected void channelRead0(ChannelHandlerContext ctx, RpcProtocol<RpcResponse> protocol) {
         long requestID = protocol.getHeader().getRequestID();
         int msgType = (int) protocol.getHeader().getMsgType();
+        // 收到任何消息都说明连接存活，繁忙的连接不会读空闲，也就不会发送心跳
+        Attribute<Integer> lostHeartbeat = ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT);
+        Integer lost = lostHeartbeat.get();
+        if (lost != null && lost != 0) {
+            lostHeartbeat.set(0);
+        }
         if (msgType == MsgType.HEARTBEAT_PONG.getType()) { // 处理心跳pong
-            RpcFuture<RpcResponse> future = RpcRequestHolder.HEARTBBEAT_MAP.remove(requestID);
-            if (future != null) {
-                future.getPromise().setSuccess(protocol.getBody());
+            if (requestID != 0) {
+                RpcFuture<RpcResponse> future = PendingRequestTable.get(ctx.channel()).remove(requestID);
+                if (future != null) {
+                    future.complete(protocol.getBody());
+                }
+            }
+        } else if (msgType == MsgType.STREAM_DATA.getType()) { // 流式响应的一个元素
+            RpcStream<?> stream = RpcStream.get(ctx.channel(), requestID);
+            if (stream != null) {
+                stream.onData(protocol.getBody().getData());
+            }
+        } else if (msgType == MsgType.RESPONSE.getType() || msgType == MsgType.STREAM_END.getType()) { // 处理响应
+            RpcFuture<RpcResponse> future = RpcRequestHolder.removeRequest(ctx.channel(), requestID);
+            MsgExtensions extensions = protocol.getExtensions();
+            if (extensions != null && extensions.getLoadReport() != null) {
+                Endpoint endpoint = ctx.channel().attr(ChannelProvider.ENDPOINT).get();
+                if (endpoint != null) {
+                    endpoint.setLoadReport(extensions.getLoadReport());
+                }
+            }
+            if (future == null) {
+                log.warn("response {id:" + requestID + "} arrived after timeout, discard it");
+                return;
+            }
+            if (extensions != null && extensions.getDecompressNanos() > 0 && future.getCompressionStats() != null) {
+                future.getCompressionStats().recordDecompress(extensions.getDecompressNanos());
             }
-        } else if (msgType == MsgType.RESPONSE.getType()) { // 处理响应
-            RpcFuture<RpcResponse> future = RpcRequestHolder.REQUEST_MAP.remove(requestID);
             if ((byte) MsgStatus.SUCCESS.getCode() == protocol.getHeader().getStatus()) {
-                future.getPromise().setSuccess(protocol.getBody());
+                if (future.getMethodKey() != null && extensions != null && extensions.getMethodId() > 0) {
+                    MethodIdTable.put(ctx.channel(), future.getMethodKey(), extensions.getMethodId());
+                }
+                future.complete(protocol.getBody());
+            } else if ((byte) MsgStatus.DEADLINE_EXCEEDED.getCode() == protocol.getHeader().getStatus()) {
+                future.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT,
+                        "deadline exceeded before " + ctx.channel().remoteAddress() + " executed the request"));
+            } else if ((byte) MsgStatus.METHOD_ID_UNKNOWN.getCode() == protocol.getHeader().getStatus()) {
+                // 服务端不认识该方法ID，之后的调用回退到完整格式并重新学习，本次调用按完整格式重发一次
+                if (future.getMethodKey() != null) {
+                    MethodIdTable.remove(ctx.channel(), future.getMethodKey());
+                }
+                Runnable retry = future.takeFullFormRetry();
+                if (retry != null) {
+                    retry.run();
+                    return;
+                }
+                future.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_INVOKE_ERROR,
+                        protocol.getBody().getMessage()));
             } else {
-                future.getPromise().setFailure(new RpcServiceException(RpcErrorMessageEnum.SERVICE_INVOKE_ERROR,
+                future.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_INVOKE_ERROR,
                         protocol.getBody().getMessage()));
             }
         }
@@ -64,50 +106,22 @@ public class RpcReponseHandler extends SimpleChannelInboundHandler<RpcProtocol<R
         if (evt instanceof IdleStateEvent) {
             IdleState state = ((IdleStateEvent) evt).state();
             if (state == IdleState.READER_IDLE) {
+                // 上次读空闲后发出的心跳一直没有等到任何消息，计数加一；收到消息时计数清零
                 int lost_time = ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).get();
                 if (lost_time > consumerConfig.getMAX_LOSE_HEARTBEAT_COUNT()) {
-                    channelProvider.setChannelRetry((InetSocketAddress) ctx.channel().remoteAddress(), true);
+                    ctx.channel().attr(ChannelProvider.RETRY).set(true);
+                    ctx.channel().close();
+                } else if (isSurplus(ctx.channel())) {
+                    // 负载下降后多余的空闲连接直接关闭，连接池收缩
+                    log.info("close idle channel {} to shrink connection pool", ctx.channel());
                     ctx.channel().close();
                 } else {
-                    log.info("no interaction with {}, send heart ping to it", ctx.channel().remoteAddress());
-                    // 构建心跳包
-                    RpcProtocol<String> protocol = new RpcProtocol<>();
-                    MsgHeader header = new MsgHeader();
-                    long requestId = RpcRequestHolder.HEARTBEAT_ID_GEN.incrementAndGet();
-                    header.setMagic(ProtocolConstants.MAGIC);
-                    header.setVersion(ProtocolConstants.VERSION);
-                    header.setRequestID(requestId);
-                    header.setStatus((byte) 0x1);
-                    header.setSerialization((byte) SerializationTypeEnum.valueOf(consumerConfig.
-                            getSerializationType()).getType());
-                    header.setMsgType((byte) MsgType.HEARTBEAT_PING.getType());
-                    header.setMsgLen(0);
-                    String body = "ping from " + ctx.channel().localAddress();
-                    header.setMsgLen(body.getBytes(StandardCharsets.UTF_8).length);
-                    protocol.setHeader(header);
-                    protocol.setBody(body);
-
-                    RpcFuture<RpcResponse> rpcFuture = new RpcFuture<>(new DefaultPromise<>(new DefaultEventLoop()),
-                            consumerConfig.getHEARTBEAT_TIME());
-                    RpcRequestHolder.HEARTBBEAT_MAP.put(requestId, rpcFuture);
-                    ctx.channel().writeAndFlush(protocol);
-
-                    rpcFuture.getPromise().addListener(future -> {
-                        try {
-                            RpcResponse pongResponse = (RpcResponse) rpcFuture.getPromise().get(rpcFuture.getTimeout(), TimeUnit.SECONDS);
-                            log.info("recv heart pong from {}", ctx.channel().remoteAddress());
-                            ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(0);
-                        } catch (Exception e) {
-                            if (e instanceof TimeoutException) {
-                                RpcRequestHolder.HEARTBBEAT_MAP.remove(requestId);
-                                int time = ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).get() + 1;
-                                ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(time);
-                                log.warn("server: " + ctx.channel().remoteAddress() + " pong timeout: " + time);
-                            } else {
-                                throw e;
-                            }
-                        }
-                    });
+                    if (lost_time > 0) {
+                        log.warn("server: " + ctx.channel().remoteAddress() + " pong timeout: " + lost_time);
+                    }
+                    ctx.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(lost_time + 1);
+                    // 空闲心跳共享预先编码的帧，不分配future，也不经过序列化
+                    ctx.writeAndFlush(Heartbeat.ping());
                 }
             }
         } else {
@@ -115,41 +129,86 @@ public class RpcReponseHandler extends SimpleChannelInboundHandler<RpcProtocol<R
         }
     }
 
+    /**
+     * 发送一次需要等待回复的心跳探测，返回的future在收到pong时完成，超时未收到则以SERVICE_CALL_TIMEOUT异常结束
+     */
+    static RpcFuture<RpcResponse> ping(Channel channel, RpcConsumerConfig consumerConfig) {
+        RpcFuture<RpcResponse> rpcFuture = new RpcFuture<>(
+                TimeUnit.SECONDS.toMillis(consumerConfig.getHEARTBEAT_TIME()));
+        PendingRequestTable pendingTable = PendingRequestTable.get(channel);
+        long requestId = pendingTable.add(rpcFuture, Integer.MAX_VALUE);
+        channel.writeAndFlush(Heartbeat.ping(channel.alloc(), requestId));
+        // 超时检查放在channel自身的EventLoop上执行
+        channel.eventLoop().schedule(() -> {
+            if (pendingTable.remove(requestId) != null) {
+                rpcFuture.completeExceptionally(new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_TIMEOUT,
+                        "heartbeat to " + channel.remoteAddress()));
+            }
+        }, rpcFuture.getTimeout(), TimeUnit.MILLISECONDS);
+        return rpcFuture;
+    }
+
+    /**
+     * 连接池中超过最少连接数且没有等待中请求的连接
+     */
+    private boolean isSurplus(Channel channel) {
+        Endpoint endpoint = channel.attr(ChannelProvider.ENDPOINT).get();
+        ChannelProvider.Node node = endpoint == null ? null : channelProvider.get(endpoint);
+        return node != null && node.size() > consumerConfig.getConnectionsPerEndpoint()
+                && PendingRequestTable.get(channel).size() == 0;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        // 旧版本服务端会丢弃握手消息，连接上不会开启批量和流式响应
+        int capabilities = consumerConfig.isBatchEnabled() ? Capabilities.SUPPORTED
+                : Capabilities.SUPPORTED & ~Capabilities.BATCH;
+        ctx.writeAndFlush(Capabilities.handshake((byte) SerializationTypeEnum.valueOf(
+                consumerConfig.getSerializationType()).getType(), capabilities, false));
+        super.channelActive(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        if (channelProvider.get((InetSocketAddress) ctx.channel().remoteAddress()).isRetry()) {
+        // 连接已断开，不必等到超时，该连接上所有等待中的请求立即失败
+        RpcRequestHolder.failAll(ctx.channel(), new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_FAILURE,
+                "connection " + ctx.channel().remoteAddress() + " inactive"));
+        ChannelProvider.Node node = channelProvider.removeChannel(ctx.channel());
+        if (node == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(ctx.channel().attr(ChannelProvider.RETRY).get())) {
             log.warn("Server: " + ctx.channel().remoteAddress() + " disconnect, try to reconnect.");
-            reconnect(ctx.channel());
-        } else {
-            channelProvider.remove((InetSocketAddress) ctx.channel().remoteAddress());
+            node.setRetry(true);
+            reconnect(node, ctx.channel());
+        } else if (node.size() == 0 && !node.isRetry()) {
+            channelProvider.remove(node.getEndpoint());
         }
     }
 
-    private void reconnect(Channel channel) {
-        ChannelProvider.Node node = channelProvider.get((InetSocketAddress) channel.remoteAddress());
+    private void reconnect(ChannelProvider.Node node, Channel channel) {
         int retry_count = node.getRetry_count();
         if (retry_count < consumerConfig.getMAX_RETRY_COUNT()) {
             retry_count += 1;
             node.setRetry_count(retry_count);
-            log.warn("try to reconnect: " + channel.remoteAddress() + " retry time: " + retry_count);
+            log.warn("try to reconnect: " + node.getEndpoint() + " retry time: " + retry_count);
             try {
-                ChannelFuture future = bootstrap.connect(channel.remoteAddress());
+                ChannelFuture future = bootstrap.connect(node.getEndpoint().getHost(), node.getEndpoint().getPort());
                 future.addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture channelFuture) throws Exception {
-                        if (channelFuture.isSuccess()) {
+                        channelFuture.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(0);
+                        if (channelFuture.isSuccess()
+                                && channelProvider.put(node.getEndpoint(), channelFuture.channel())) {
                             log.warn("Reconnect successfully! " + channelFuture.channel());
-                            channelFuture.channel().attr(RpcConsumer.LOSE_HEARTBEAT_COUNT).set(0);
-                            channelProvider.setChannelRetry((InetSocketAddress) channelFuture.channel().remoteAddress(),
-                                    false);
-                            channelProvider.put((InetSocketAddress) channelFuture.channel().remoteAddress(),
-                                    channelFuture.channel());
+                            node.setRetry_count(0);
+                            node.setRetry(false);
                         } else {
                             log.warn("Reconnect failed! " + channel);
                             channel.eventLoop().schedule(new Runnable() {
                                 @Override
                                 public void run() {
-                                    reconnect(channel);
+                                    reconnect(node, channel);
                                 }
                             }, consumerConfig.getRETRY_TIME(), TimeUnit.SECONDS);
                         }
@@ -157,14 +216,20 @@ public class RpcReponseHandler extends SimpleChannelInboundHandler<RpcProtocol<R
                 });
             } catch (Exception e) {
                 log.error("Reconnect error " + channel);
-                channelProvider.remove((InetSocketAddress) channel.remoteAddress());
-                channel.close();
+                giveUp(node);
             }
         } else {
-            // 超过最大重连次数，丢弃该连接
-            channelProvider.remove((InetSocketAddress) channel.remoteAddress());
+            // 超过最大重连次数，放弃该连接
             log.warn("can't reconnect to：" + channel + ". retry end");
-            channel.close();
+            giveUp(node);
+        }
+    }
+
+    private void giveUp(ChannelProvider.Node node) {
+        node.setRetry_count(0);
+        node.setRetry(false);
+        if (node.size() == 0) {
+            channelProvider.remove(node.getEndpoint());
         }
     }
 
@@ -172,7 +237,7 @@ public class RpcReponseHandler extends SimpleChannelInboundHandler<RpcProtocol<R
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (cause instanceof IOException) {
             log.error(ctx.channel() + " abnormal disconnect");
-            channelProvider.setChannelRetry((InetSocketAddress) ctx.channel().remoteAddress(), true);
+            ctx.channel().attr(ChannelProvider.RETRY).set(true);
             ctx.channel().close();
         } else {
             super.exceptionCaught(ctx, cause);
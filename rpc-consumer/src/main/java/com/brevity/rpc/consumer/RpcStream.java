@@ -0,0 +1,189 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.RpcFuture;
+import com.brevity.rpc.common.RpcRequestHolder;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.common.exception.RpcErrorMessageEnum;
+import com.brevity.rpc.common.exception.RpcServiceException;
+import com.brevity.rpc.handler.RpcChannelWriter;
+import com.brevity.rpc.protocol.Capabilities;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 消费端的流式响应，返回值为Iterator的方法以它作为结果。收到的元素先放入队列，调用方每消费半个窗口的元素
+ * 就向服务端授予同样数量的credit，队列中的元素数不会超过窗口大小。
+ * 调用的结束、失败和超时都由请求对应的RpcFuture驱动；调用方提前放弃时应调用close，通知服务端停止发送
+ */
+public class RpcStream<T> implements Iterator<T>, AutoCloseable {
+
+    private static final AttributeKey<Map<Long, RpcStream<?>>> KEY = AttributeKey.valueOf("streams");
+
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final int window;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private volatile Channel channel;
+    private volatile long requestId;
+    private volatile boolean ended; // 已收到结束或失败
+    private volatile boolean closed; // 调用方已关闭
+    private Object next; // hasNext取出但还未被next返回的元素，只由调用方线程访问
+    private int consumed; // 上次授予credit后消费的元素数
+
+    public RpcStream(int window) {
+        this.window = Math.max(2, window);
+    }
+
+    /**
+     * 请求发出前调用：登记到channel上，之后该请求ID的STREAM_DATA会交给这个流
+     */
+    void attach(Channel channel, long requestId, RpcFuture<RpcResponse> future) {
+        this.channel = channel;
+        this.requestId = requestId;
+        streams(channel).put(requestId, this);
+        future.whenComplete((response, cause) -> {
+            streams(channel).remove(requestId, this);
+            if (cause != null) {
+                onError(cause);
+            } else {
+                onEnd(response);
+            }
+        });
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    static RpcStream<?> get(Channel channel, long requestId) {
+        return streams(channel).get(requestId);
+    }
+
+    private static Map<Long, RpcStream<?>> streams(Channel channel) {
+        Map<Long, RpcStream<?>> streams = channel.attr(KEY).get();
+        if (streams == null) {
+            streams = new ConcurrentHashMap<>();
+            Map<Long, RpcStream<?>> old = channel.attr(KEY).setIfAbsent(streams);
+            if (old != null) {
+                streams = old;
+            }
+        }
+        return streams;
+    }
+
+    void onData(Object data) {
+        queue.offer(data == null ? NULL : data);
+    }
+
+    /**
+     * 流正常结束。服务端不支持流式响应时整个结果在一个RESPONSE中返回，这里逐个放入队列
+     */
+    private void onEnd(RpcResponse response) {
+        ended = true;
+        Object data = response == null ? null : response.getData();
+        if (data instanceof Iterable) {
+            for (Object item : (Iterable<?>) data) {
+                onData(item);
+            }
+        }
+        queue.offer(END);
+    }
+
+    private void onError(Throwable cause) {
+        if (!ended) {
+            ended = true;
+            // 超时等原因在服务端发送完之前放弃，通知服务端停止发送
+            grant(0);
+        }
+        queue.offer(cause);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_FAILURE, "stream interrupted");
+            }
+        }
+        if (next == END) {
+            return false;
+        }
+        if (next instanceof Throwable) {
+            Throwable cause = (Throwable) next;
+            throw cause instanceof RpcServiceException ? (RpcServiceException) cause
+                    : new RpcServiceException(cause.getMessage(), cause);
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object item = next;
+        next = null;
+        if (!ended && ++consumed >= window / 2) {
+            grant(consumed);
+            consumed = 0;
+        }
+        return item == NULL ? null : (T) item;
+    }
+
+    /**
+     * 调用方不再消费剩余元素：通知服务端停止发送(credit为0)，并结束等待中的请求，不必等到超时
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!ended) {
+            ended = true;
+            grant(0);
+            Channel ch = channel;
+            if (ch != null) {
+                RpcRequestHolder.failRequest(ch, requestId,
+                        new RpcServiceException(RpcErrorMessageEnum.SERVICE_CALL_FAILURE, "stream closed"));
+            }
+        }
+        queue.clear();
+    }
+
+    private void grant(int credits) {
+        Channel ch = channel;
+        if (ch == null || !ch.isActive() || !Capabilities.isEnabled(ch, Capabilities.STREAM)) {
+            return;
+        }
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setMsgType((byte) MsgType.STREAM_CREDIT.getType());
+        header.setStatus((byte) 0x1);
+        header.setRequestID(requestId);
+        RpcProtocol<Integer> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(credits);
+        RpcChannelWriter.get(ch).write(protocol);
+    }
+}
@@ -0,0 +1,129 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.RegistryService;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个服务的路由信息。服务发现和高可用过滤的结果预先计算成不可变的快照，
+ * 调用时只需读取快照并比较版本号，注册中心的服务列表或节点的可用状态变化后才重建
+ */
+public class ServiceRoute {
+
+    private final String serviceKey;
+    private final RpcRequest lookupRequest; // 用于向注册中心查询服务列表，只包含类名和版本
+    private final RegistryService registryService;
+    private final ChannelProvider channelProvider;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * 不可变的路由快照
+     */
+    @Getter
+    public static final class Snapshot {
+        private final String serviceKey;
+        private final long registryVersion;
+        private final long healthVersion;
+        private final long recheckTime; // 被排除的节点最早恢复的时间，到达后需要重建，0表示没有
+        private final List<ServiceMeta> providers; // 注册中心返回的服务列表
+        // 过滤掉重连中和建连失败的节点后的列表，引用不变，负载均衡器据此缓存状态；
+        // 节点的Endpoint和权重在重建时预先算好，负载均衡器按下标读取
+        private final ServerList available;
+
+        private Snapshot(String serviceKey, long registryVersion, long healthVersion, long recheckTime,
+                         List<ServiceMeta> providers, ServerList available) {
+            this.serviceKey = serviceKey;
+            this.registryVersion = registryVersion;
+            this.healthVersion = healthVersion;
+            this.recheckTime = recheckTime;
+            this.providers = providers;
+            this.available = available;
+        }
+    }
+
+    public ServiceRoute(String serviceKey, String className, String serviceVersion, RegistryService registryService) {
+        this.serviceKey = serviceKey;
+        this.lookupRequest = new RpcRequest();
+        this.lookupRequest.setClassName(className);
+        this.lookupRequest.setServiceVersion(serviceVersion);
+        this.registryService = registryService;
+        this.channelProvider = ChannelProvider.getInstance();
+    }
+
+    public Snapshot snapshot() throws Exception {
+        Snapshot current = snapshot;
+        if (current == null || isStale(current)) {
+            current = rebuild();
+        }
+        return current;
+    }
+
+    private boolean isStale(Snapshot current) {
+        return current.registryVersion != registryService.getVersion()
+                || current.healthVersion != channelProvider.getHealthVersion()
+                || (current.recheckTime != 0 && System.currentTimeMillis() >= current.recheckTime);
+    }
+
+    private synchronized Snapshot rebuild() throws Exception {
+        Snapshot current = snapshot;
+        if (current != null && !isStale(current)) {
+            return current;
+        }
+        // 先读版本号再读数据，构建期间发生的变化会让下一次调用再次重建
+        long registryVersion = registryService.getVersion();
+        long healthVersion = channelProvider.getHealthVersion();
+        List<ServiceMeta> providers = registryService.lookupService(lookupRequest);
+        if (providers == null) {
+            providers = Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        long recheckTime = 0;
+        List<ServiceMeta> available = new ArrayList<>(providers.size());
+        for (ServiceMeta serviceMeta : providers) {
+            // Endpoint解析后缓存在ServiceMeta上，这里只是一次字段读取
+            ChannelProvider.Node node = channelProvider.get(channelProvider.endpoint(serviceMeta));
+            if (node != null && node.isExcluded()) {
+                long excludedUntil = node.getExcludedUntil();
+                if (!node.isRetry() && excludedUntil > now && (recheckTime == 0 || excludedUntil < recheckTime)) {
+                    recheckTime = excludedUntil;
+                }
+                continue;
+            }
+            available.add(serviceMeta);
+        }
+        if (current != null && sameElements(current.available, available)) {
+            // 可用节点没有变化时沿用原来的列表，负载均衡器按列表缓存的状态不会失效
+            current = new Snapshot(serviceKey, registryVersion, healthVersion, recheckTime, providers,
+                    current.available);
+        } else {
+            current = new Snapshot(serviceKey, registryVersion, healthVersion, recheckTime, providers,
+                    ServerList.of(available));
+        }
+        snapshot = current;
+        return current;
+    }
+
+    private static boolean sameElements(List<ServiceMeta> a, List<ServiceMeta> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getServiceKey() {
+        return serviceKey;
+    }
+}
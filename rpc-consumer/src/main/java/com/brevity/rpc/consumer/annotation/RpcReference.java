@@ -11,5 +11,9 @@ public @interface RpcReference {
 
     String serviceVersion() default "1.0.0";
 
-    long timeout() default 5000;
+    long timeout() default 5000; // 调用超时时间，单位毫秒
+
+    int[] hashArguments() default {}; // 一致性哈希负载均衡时组成路由键的参数下标，默认使用方法名和全部参数
+
+    String compression() default "NONE"; // 请求消息体的压缩算法：NONE、DEFLATE、SNAPPY，达到compressThreshold才压缩
 }
@@ -0,0 +1,46 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.Endpoint;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 连接池中不能残留已关闭的channel
+ */
+public class ChannelPoolTest {
+
+    private final ChannelProvider channelProvider = ChannelProvider.getInstance();
+
+    @Test
+    public void closedChannelIsNotPooled() {
+        Endpoint endpoint = channelProvider.endpoint("10.0.0.1", 18001);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.close();
+
+        assertFalse(channelProvider.put(endpoint, channel));
+        assertEquals(0, channelProvider.getNode(endpoint).size());
+        assertNull(channelProvider.getNode(endpoint).select());
+    }
+
+    @Test
+    public void pooledChannelIsEvictedOnClose() {
+        Endpoint endpoint = channelProvider.endpoint("10.0.0.1", 18002);
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        assertTrue(channelProvider.put(endpoint, channel));
+        ChannelProvider.Node node = channelProvider.getNode(endpoint);
+        assertEquals(1, node.size());
+        assertSame(channel, node.select());
+
+        channel.close();
+        assertEquals(0, node.size());
+        assertNull(node.select());
+    }
+}
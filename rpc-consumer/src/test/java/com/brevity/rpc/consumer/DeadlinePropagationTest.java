@@ -0,0 +1,57 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.RpcContext;
+import com.brevity.rpc.common.exception.RpcServiceException;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 继承的截止时间已过时，嵌套调用直接失败，不发出请求
+ */
+public class DeadlinePropagationTest {
+
+    public interface NestedService {
+        String hello(String name);
+    }
+
+    // 没有RpcConsumer，一旦尝试发送请求就会抛出NullPointerException
+    private final NestedService service = (NestedService) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{NestedService.class},
+            new RpcInvokerProxy("1.0", 3000, null, (byte) 0, null, null, SerializationTypeEnum.HESSIAN));
+
+    @After
+    public void clearDeadline() {
+        RpcContext.getContext().setDeadline(0);
+    }
+
+    @Test
+    public void expiredDeadlineFailsSyncCallWithoutSending() {
+        RpcContext.getContext().setDeadline(System.nanoTime() - 1);
+        try {
+            service.hello("brevity");
+            fail("call should fail fast");
+        } catch (RpcServiceException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("deadline exceeded"));
+        }
+    }
+
+    @Test
+    public void expiredDeadlineFailsAsyncCallWithoutSending() throws Exception {
+        RpcContext.getContext().setDeadline(System.nanoTime() - 1);
+        CompletableFuture<String> future = RpcContext.async(() -> service.hello("brevity"), Runnable::run);
+        try {
+            future.get();
+            fail("call should fail fast");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RpcServiceException);
+        }
+    }
+}
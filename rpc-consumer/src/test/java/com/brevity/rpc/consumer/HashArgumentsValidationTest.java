@@ -0,0 +1,48 @@
+package com.brevity.rpc.consumer;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+
+import java.lang.reflect.Field;
+
+/**
+ * 创建引用时校验hashArguments，非法的下标和没有稳定hashCode的参数类型直接失败
+ */
+public class HashArgumentsValidationTest {
+
+    public static class Plain {
+    }
+
+    public interface OrderService {
+        String query(String orderId, int[] items);
+
+        String cancel(String orderId, Plain reason);
+    }
+
+    private OrderService orderService;
+
+    private Field field() throws NoSuchFieldException {
+        return HashArgumentsValidationTest.class.getDeclaredField("orderService");
+    }
+
+    @Test
+    public void validIndexes() throws Exception {
+        ConsumerPostProcessor.validateHashArguments("bean", field(), new int[]{0});
+        ConsumerPostProcessor.validateHashArguments("bean", field(), new int[]{});
+    }
+
+    @Test(expected = BeanCreationException.class)
+    public void negativeIndex() throws Exception {
+        ConsumerPostProcessor.validateHashArguments("bean", field(), new int[]{-1});
+    }
+
+    @Test(expected = BeanCreationException.class)
+    public void indexBeyondArity() throws Exception {
+        ConsumerPostProcessor.validateHashArguments("bean", field(), new int[]{2});
+    }
+
+    @Test(expected = BeanCreationException.class)
+    public void identityHashCodeType() throws Exception {
+        ConsumerPostProcessor.validateHashArguments("bean", field(), new int[]{1});
+    }
+}
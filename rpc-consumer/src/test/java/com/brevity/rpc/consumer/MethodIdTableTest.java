@@ -0,0 +1,110 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.common.MethodKey;
+import com.brevity.rpc.common.RpcConsumerConfig;
+import com.brevity.rpc.common.RpcFuture;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcRequestHolder;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 只有服务端明确回复METHOD_ID_UNKNOWN时才忘掉已学到的方法ID，业务失败不影响
+ */
+public class MethodIdTableTest {
+
+    private static final MethodKey METHOD_KEY;
+
+    static {
+        RpcRequest request = new RpcRequest();
+        request.setClassName("com.brevity.rpc.facade.HelloFacade");
+        request.setServiceVersion("1.0");
+        request.setMethodName("hello");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        METHOD_KEY = MethodKey.of(request);
+    }
+
+    @Test
+    public void businessFailureKeepsMethodId() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcReponseHandler(new Bootstrap(), new RpcConsumerConfig()));
+        MethodIdTable.put(channel, METHOD_KEY, 5);
+
+        RpcFuture<RpcResponse> future = respond(channel, MsgStatus.FAIL);
+
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(5, MethodIdTable.get(channel, METHOD_KEY));
+    }
+
+    @Test
+    public void unknownMethodIdIsForgotten() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcReponseHandler(new Bootstrap(), new RpcConsumerConfig()));
+        MethodIdTable.put(channel, METHOD_KEY, 5);
+        RpcFuture<RpcResponse> future = newFuture();
+        long[] retriedId = new long[1];
+        // 模拟完整格式重发：同一个future重新登记到channel上
+        future.setFullFormRetry(() -> retriedId[0] = RpcRequestHolder.addRequest(channel, future));
+
+        respond(channel, future, RpcRequestHolder.addRequest(channel, future), MsgStatus.METHOD_ID_UNKNOWN);
+
+        assertEquals(0, MethodIdTable.get(channel, METHOD_KEY));
+        assertFalse(future.isDone());
+        assertTrue(retriedId[0] > 0);
+
+        respond(channel, future, retriedId[0], MsgStatus.SUCCESS);
+
+        assertEquals("SUCCESS", future.get().getMessage());
+    }
+
+    @Test
+    public void unknownMethodIdIsRetriedOnce() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcReponseHandler(new Bootstrap(), new RpcConsumerConfig()));
+        MethodIdTable.put(channel, METHOD_KEY, 5);
+        RpcFuture<RpcResponse> future = newFuture();
+        long[] retriedId = new long[1];
+        future.setFullFormRetry(() -> retriedId[0] = RpcRequestHolder.addRequest(channel, future));
+
+        respond(channel, future, RpcRequestHolder.addRequest(channel, future), MsgStatus.METHOD_ID_UNKNOWN);
+        respond(channel, future, retriedId[0], MsgStatus.METHOD_ID_UNKNOWN);
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    private static RpcFuture<RpcResponse> respond(EmbeddedChannel channel, MsgStatus status) {
+        RpcFuture<RpcResponse> future = newFuture();
+        respond(channel, future, RpcRequestHolder.addRequest(channel, future), status);
+        return future;
+    }
+
+    private static RpcFuture<RpcResponse> newFuture() {
+        RpcFuture<RpcResponse> future = new RpcFuture<>(60000);
+        future.setMethodKey(METHOD_KEY);
+        return future;
+    }
+
+    private static void respond(EmbeddedChannel channel, RpcFuture<RpcResponse> future, long requestId,
+                                MsgStatus status) {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setMsgType((byte) MsgType.RESPONSE.getType());
+        header.setStatus((byte) status.getCode());
+        header.setRequestID(requestId);
+        RpcResponse response = new RpcResponse();
+        response.setMessage(status.name());
+        RpcProtocol<RpcResponse> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(response);
+        channel.writeInbound(protocol);
+    }
+}
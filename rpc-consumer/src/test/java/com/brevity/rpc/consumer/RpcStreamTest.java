@@ -0,0 +1,73 @@
+package com.brevity.rpc.consumer;
+
+import com.brevity.rpc.codec.RpcEncoder;
+import com.brevity.rpc.common.RpcFuture;
+import com.brevity.rpc.common.RpcRequestHolder;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.Capabilities;
+import com.brevity.rpc.protocol.MsgType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 调用方关闭流时通知服务端停止发送，并结束等待中的请求
+ */
+public class RpcStreamTest {
+
+    @Test
+    public void closeSendsCancelAndCompletesRequest() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder());
+        channel.attr(Capabilities.KEY).set(Capabilities.STREAM);
+        RpcFuture<RpcResponse> future = new RpcFuture<>(60000);
+        long requestId = RpcRequestHolder.addRequest(channel, future);
+        RpcStream<String> stream = new RpcStream<>(16);
+        stream.attach(channel, requestId, future);
+        stream.onData("first");
+
+        assertTrue(stream.hasNext());
+        assertEquals("first", stream.next());
+        stream.close();
+        channel.runPendingTasks();
+
+        ByteBuf frame = channel.readOutbound();
+        try {
+            assertEquals(MsgType.STREAM_CREDIT.getType(), frame.getByte(4));
+            assertEquals(requestId, frame.getLong(6));
+            assertEquals(0, frame.getInt(18));
+        } finally {
+            frame.release();
+        }
+        assertNull(channel.readOutbound());
+        assertTrue(future.isCompletedExceptionally());
+        assertNull(RpcRequestHolder.removeRequest(channel, requestId));
+        assertNull(RpcStream.get(channel, requestId));
+        assertFalse(stream.hasNext());
+
+        // 重复关闭不会再发送
+        stream.close();
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void closeAfterEndSendsNothing() {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder());
+        channel.attr(Capabilities.KEY).set(Capabilities.STREAM);
+        RpcFuture<RpcResponse> future = new RpcFuture<>(60000);
+        long requestId = RpcRequestHolder.addRequest(channel, future);
+        RpcStream<String> stream = new RpcStream<>(16);
+        stream.attach(channel, requestId, future);
+        future.complete(new RpcResponse());
+
+        assertFalse(stream.hasNext());
+        stream.close();
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+    }
+}
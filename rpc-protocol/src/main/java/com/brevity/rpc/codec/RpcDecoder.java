@@ -2,12 +2,18 @@ package com.brevity.rpc.codec;
 
 import com.brevity.rpc.common.RpcRequest;
 import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.compress.Compressor;
+import com.brevity.rpc.compress.CompressorFactory;
+import com.brevity.rpc.handler.RpcChannelWriter;
+import com.brevity.rpc.handler.RpcStreamSender;
 import com.brevity.rpc.protocol.*;
 import com.brevity.rpc.serialization.RpcSerialization;
 import com.brevity.rpc.serialization.SerializationFactory;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
 import com.brevity.rpc.protocol.RpcProtocol;
 import lombok.extern.slf4j.Slf4j;
 
@@ -27,6 +33,16 @@ public class RpcDecoder extends ByteToMessageDecoder {
     +---------------------------------------------------------------+
     */
 
+    private final int maxDecompressedLength; // 压缩前长度由对端声明，超过上限的帧直接拒绝，不按它分配内存
+
+    public RpcDecoder() {
+        this(ProtocolConstants.DEFAULT_MAX_DECOMPRESSED_LENGTH);
+    }
+
+    public RpcDecoder(int maxDecompressedLength) {
+        this.maxDecompressedLength = maxDecompressedLength;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> list) throws Exception {
         if (in.readableBytes() < ProtocolConstants.HEADER_TOTAL_LEN) {
@@ -50,14 +66,59 @@ public class RpcDecoder extends ByteToMessageDecoder {
             in.resetReaderIndex();
             return;
         }
-        byte[] data = new byte[dataLen];
-        in.readBytes(data);
+        // 消息体只做切片，不拷贝到新的byte[]中，反序列化在decode返回前完成，因此无需retain
+        ByteBuf data = in.readSlice(dataLen);
 
         MsgType msgTypeEnum = MsgType.findByType(msgType);
         if (msgTypeEnum == null) {
             return;
         }
 
+        switch (msgTypeEnum) {
+            case BATCH:
+            case BATCH_RESPONSE:
+                // 批量帧拆成单条消息交给后续的handler，处理方式与单独发送的消息相同
+                MsgType itemType = msgTypeEnum == MsgType.BATCH ? MsgType.REQUEST : MsgType.RESPONSE;
+                int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    byte itemStatus = data.readByte();
+                    long itemRequestID = data.readLong();
+                    int itemLen = data.readInt();
+                    MsgHeader itemHeader = newHeader(magic, version, serializationType, (byte) itemType.getType(),
+                            itemStatus, itemRequestID, itemLen);
+                    decodeMessage(ctx, itemType, itemHeader, data.readSlice(itemLen), list);
+                }
+                break;
+            case HANDSHAKE:
+                int capabilities = data.readInt() & Capabilities.SUPPORTED;
+                ctx.channel().attr(Capabilities.KEY).set(capabilities);
+                RpcChannelWriter.get(ctx.channel()).setBatching((capabilities & Capabilities.BATCH) != 0);
+                if (status != MsgStatus.SUCCESS.getCode()) {
+                    // 对端发起的握手，回复双方都支持的能力
+                    ctx.writeAndFlush(Capabilities.handshake(serializationType, capabilities, true));
+                }
+                break;
+            case HEARTBEAT_PING:
+                if (dataLen == 0) {
+                    // 没有数据内容的心跳，回复预先编码的pong，不经过序列化
+                    ctx.writeAndFlush(Heartbeat.pong(ctx.alloc(), requestID));
+                    break;
+                }
+                decodeMessage(ctx, msgTypeEnum, newHeader(magic, version, serializationType, msgType, status,
+                        requestID, dataLen), data, list);
+                break;
+            case STREAM_CREDIT:
+                RpcStreamSender.grant(ctx.channel(), requestID, data.readInt());
+                break;
+            default:
+                decodeMessage(ctx, msgTypeEnum, newHeader(magic, version, serializationType, msgType, status,
+                        requestID, dataLen), data, list);
+                break;
+        }
+    }
+
+    private static MsgHeader newHeader(short magic, byte version, byte serializationType, byte msgType, byte status,
+                                       long requestID, int dataLen) {
         MsgHeader header = new MsgHeader();
         header.setMagic(magic);
         header.setVersion(version);
@@ -66,8 +127,59 @@ public class RpcDecoder extends ByteToMessageDecoder {
         header.setStatus(status);
         header.setRequestID(requestID);
         header.setMsgLen(dataLen);
+        return header;
+    }
 
-        RpcSerialization serialization = SerializationFactory.getRpcSerialization(serializationType);
+    private void decodeMessage(ChannelHandlerContext ctx, MsgType msgTypeEnum, MsgHeader header, ByteBuf data,
+                               List<Object> list) throws Exception {
+        MsgExtensions extensions = null;
+        if ((header.getStatus() & ProtocolConstants.FLAG_EXTENSIONS) != 0) {
+            // 先解析扩展区，剩下的才是消息体；标志位不向上层暴露
+            extensions = MsgExtensions.decode(data);
+            header.setStatus((byte) (header.getStatus() & ProtocolConstants.STATUS_MASK));
+        }
+        ByteBuf decompressed = null;
+        if (extensions != null && extensions.getCompression() != 0) {
+            Compressor compressor = CompressorFactory.getCompressor(extensions.getCompression());
+            if (compressor == null) {
+                throw new IllegalArgumentException("compression type is illegal, " + extensions.getCompression());
+            }
+            int rawLength = extensions.getRawLength();
+            if (rawLength < 0 || rawLength > maxDecompressedLength) {
+                throw new CorruptedFrameException("raw length " + rawLength + " of message " + header.getRequestID()
+                        + " exceeds the limit " + maxDecompressedLength);
+            }
+            long start = System.nanoTime();
+            // 容量上限就是rawLength，解压结果超出声明的长度时写入失败而不是继续扩容
+            decompressed = ctx.alloc().buffer(rawLength, rawLength);
+            try {
+                compressor.decompress(data, decompressed, rawLength);
+                if (decompressed.readableBytes() != rawLength) {
+                    throw new CorruptedFrameException("decompressed " + decompressed.readableBytes()
+                            + " bytes, expected " + rawLength);
+                }
+            } catch (DecoderException e) {
+                decompressed.release();
+                throw e;
+            } catch (Exception e) {
+                decompressed.release();
+                throw new CorruptedFrameException("corrupted compressed body of message " + header.getRequestID(), e);
+            }
+            extensions.setDecompressNanos(System.nanoTime() - start);
+            data = decompressed;
+        }
+        try {
+            decodeBody(ctx, msgTypeEnum, header, extensions, data, list);
+        } finally {
+            if (decompressed != null) {
+                decompressed.release();
+            }
+        }
+    }
+
+    private void decodeBody(ChannelHandlerContext ctx, MsgType msgTypeEnum, MsgHeader header,
+                            MsgExtensions extensions, ByteBuf data, List<Object> list) throws Exception {
+        RpcSerialization serialization = SerializationFactory.getRpcSerialization(header.getSerialization());
         switch (msgTypeEnum) {
             case REQUEST:
                 RpcRequest request = serialization.deserialize(data, RpcRequest.class);
@@ -75,19 +187,26 @@ public class RpcDecoder extends ByteToMessageDecoder {
                     RpcProtocol<RpcRequest> protocol = new RpcProtocol<>();
                     protocol.setHeader(header);
                     protocol.setBody(request);
+                    protocol.setExtensions(extensions);
                     list.add(protocol);
                 }
                 break;
             case RESPONSE:
-                RpcResponse response = serialization.deserialize(data, RpcResponse.class);
+            case STREAM_DATA:
+            case STREAM_END:
+                // 没有数据内容的响应(例如DEADLINE_EXCEEDED)只有头部，不经过反序列化
+                RpcResponse response = data.isReadable() ? serialization.deserialize(data, RpcResponse.class)
+                        : new RpcResponse();
                 if (response != null) {
                     RpcProtocol<RpcResponse> protocol = new RpcProtocol<>();
                     protocol.setHeader(header);
                     protocol.setBody(response);
+                    protocol.setExtensions(extensions);
                     list.add(protocol);
                 }
                 break;
             case HEARTBEAT_PING:
+                // 旧版本消费端的心跳，按原来的格式回复字符串
                 log.info("recv heart ping from {}", ctx.channel().remoteAddress());
                 RpcProtocol<String> protocol = new RpcProtocol<>();
                 header.setMsgType((byte) MsgType.HEARTBEAT_PONG.getType());
@@ -99,15 +218,11 @@ public class RpcDecoder extends ByteToMessageDecoder {
                 ctx.writeAndFlush(protocol);
                 break;
             case HEARTBEAT_PONG:
-                String pong = serialization.deserialize(data, String.class);
-                if (pong != null) {
-                    RpcProtocol<RpcResponse> protocol1 = new RpcProtocol<>();
-                    protocol1.setHeader(header);
-                    RpcResponse rpcResponse = new RpcResponse();
-                    rpcResponse.setData(pong);
-                    protocol1.setBody(rpcResponse);
-                    list.add(protocol1);
-                }
+                // pong只用来确认连接存活，旧版本服务端回复的字符串不再反序列化
+                RpcProtocol<RpcResponse> pong = new RpcProtocol<>();
+                pong.setHeader(header);
+                pong.setBody(new RpcResponse());
+                list.add(pong);
                 break;
         }
     }
@@ -1,13 +1,24 @@
 package com.brevity.rpc.codec;
 
+import com.brevity.rpc.common.CompressionStats;
+import com.brevity.rpc.compress.Compressor;
+import com.brevity.rpc.compress.CompressorFactory;
+import com.brevity.rpc.protocol.MsgExtensions;
 import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcBatch;
 import com.brevity.rpc.protocol.RpcProtocol;
 import com.brevity.rpc.serialization.RpcSerialization;
 import com.brevity.rpc.serialization.SerializationFactory;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
+import java.io.IOException;
+import java.util.List;
+
 public class RpcEncoder extends MessageToByteEncoder<RpcProtocol<Object>> {
     /*
     +---------------------------------------------------------------+
@@ -19,6 +30,16 @@ public class RpcEncoder extends MessageToByteEncoder<RpcProtocol<Object>> {
     +---------------------------------------------------------------+
     */
 
+    private final int compressThreshold; // 消息体达到该字节数才压缩
+
+    public RpcEncoder() {
+        this(ProtocolConstants.DEFAULT_COMPRESS_THRESHOLD);
+    }
+
+    public RpcEncoder(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, RpcProtocol<Object> msg, ByteBuf byteBuf) throws Exception {
         MsgHeader header = msg.getHeader();
@@ -26,39 +47,120 @@ public class RpcEncoder extends MessageToByteEncoder<RpcProtocol<Object>> {
         byteBuf.writeByte(header.getVersion());
         byteBuf.writeByte(header.getSerialization());
         byteBuf.writeByte(header.getMsgType());
-        byteBuf.writeByte(header.getStatus());
-        byteBuf.writeLong(header.getRequestID());
-        RpcSerialization rpcSerialization = SerializationFactory.getRpcSerialization(header.getSerialization());
-        byte[] data = rpcSerialization.serialize(msg.getBody());
-        byteBuf.writeInt(data.length);
-        byteBuf.writeBytes(data);
+        if (header.getMsgType() == MsgType.BATCH.getType() || header.getMsgType() == MsgType.BATCH_RESPONSE.getType()) {
+            byteBuf.writeByte(header.getStatus());
+            byteBuf.writeLong(header.getRequestID());
+            int lengthIndex = byteBuf.writerIndex();
+            byteBuf.writeInt(0);
+            RpcBatch batch = (RpcBatch) msg.getBody();
+            List<RpcProtocol<Object>> messages = batch.getMessages();
+            int countIndex = byteBuf.writerIndex();
+            byteBuf.writeShort(0);
+            RpcSerialization rpcSerialization = SerializationFactory.getRpcSerialization(header.getSerialization());
+            int count = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                // 批量帧中的每条消息省略与外层相同的魔数、版本号、序列化算法和报文类型
+                int start = byteBuf.writerIndex();
+                try {
+                    encodeMessage(messages.get(i), rpcSerialization, byteBuf);
+                    count++;
+                } catch (IOException | RuntimeException e) {
+                    // 丢弃这条消息已写入的部分，只有它失败
+                    byteBuf.writerIndex(start);
+                    batch.fail(i, e);
+                }
+            }
+            byteBuf.setShort(countIndex, count);
+            byteBuf.setInt(lengthIndex, byteBuf.writerIndex() - lengthIndex - 4);
+        } else if (header.getMsgType() == MsgType.HANDSHAKE.getType()
+                || header.getMsgType() == MsgType.STREAM_CREDIT.getType()) {
+            byteBuf.writeByte(header.getStatus());
+            byteBuf.writeLong(header.getRequestID());
+            byteBuf.writeInt(4);
+            byteBuf.writeInt((Integer) msg.getBody());
+        } else {
+            encodeMessage(msg, SerializationFactory.getRpcSerialization(header.getSerialization()), byteBuf);
+        }
     }
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
 
+    /**
+     * 写入状态、消息ID、数据长度和数据内容
+     */
+    private void encodeMessage(RpcProtocol<Object> msg, RpcSerialization rpcSerialization, ByteBuf byteBuf)
+            throws IOException {
+        MsgHeader header = msg.getHeader();
+        MsgExtensions extensions = msg.getExtensions();
+        ByteBuf body = null;
+        try {
+            if (extensions != null && extensions.getCompression() != 0) {
+                // 是否压缩要在写扩展区之前决定，消息体先序列化到临时缓冲区
+                body = serializeCompressed(msg.getBody(), extensions, rpcSerialization, byteBuf.alloc());
+            }
+            boolean hasExtensions = extensions != null && !extensions.isEmpty();
+            byteBuf.writeByte(hasExtensions ? header.getStatus() | ProtocolConstants.FLAG_EXTENSIONS
+                    : header.getStatus());
+            byteBuf.writeLong(header.getRequestID());
+            // 先占位数据长度，消息体直接序列化进byteBuf后再回填
+            int lengthIndex = byteBuf.writerIndex();
+            byteBuf.writeInt(0);
+            if (hasExtensions) {
+                extensions.encode(byteBuf);
+            }
+            if (body != null) {
+                byteBuf.writeBytes(body);
+            } else if (msg.getBody() != null) {
+                rpcSerialization.serialize(msg.getBody(), byteBuf);
+            }
+            int dataLen = byteBuf.writerIndex() - lengthIndex - 4;
+            byteBuf.setInt(lengthIndex, dataLen);
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+        }
+    }
 
+    /**
+     * 消息体达到阈值且压缩后确实变小时返回压缩后的内容，否则返回原始内容并清除扩展区中的压缩算法
+     */
+    private ByteBuf serializeCompressed(Object body, MsgExtensions extensions, RpcSerialization rpcSerialization,
+                                       ByteBufAllocator alloc) throws IOException {
+        byte compression = extensions.getCompression();
+        extensions.setCompression((byte) 0);
+        ByteBuf raw = alloc.buffer();
+        try {
+            rpcSerialization.serialize(body, raw);
+        } catch (IOException | RuntimeException e) {
+            raw.release();
+            throw e;
+        }
+        int rawLength = raw.readableBytes();
+        Compressor compressor = rawLength < compressThreshold ? null : CompressorFactory.getCompressor(compression);
+        if (compressor == null) {
+            return raw;
+        }
+        long start = System.nanoTime();
+        ByteBuf compressed = alloc.buffer(rawLength);
+        try {
+            compressor.compress(raw.duplicate(), compressed);
+        } catch (IOException | RuntimeException e) {
+            compressed.release();
+            raw.release();
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        CompressionStats stats = extensions.getCompressionStats();
+        if (stats != null) {
+            stats.recordCompress(rawLength, Math.min(compressed.readableBytes(), rawLength), nanos);
+        }
+        if (compressed.readableBytes() >= rawLength) {
+            // 数据本身不可压缩，发送原始内容
+            compressed.release();
+            return raw;
+        }
+        raw.release();
+        extensions.setCompression(compression);
+        extensions.setRawLength(rawLength);
+        return compressed;
+    }
+}
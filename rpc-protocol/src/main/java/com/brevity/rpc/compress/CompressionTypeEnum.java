@@ -0,0 +1,25 @@
+package com.brevity.rpc.compress;
+
+import lombok.Getter;
+
+public enum CompressionTypeEnum {
+    NONE(0),
+    DEFLATE(1), // JDK自带，压缩率高
+    SNAPPY(2); // LZ77类算法，压缩率较低但速度快得多
+
+    @Getter
+    private final int type;
+
+    CompressionTypeEnum(int type) {
+        this.type = type;
+    }
+
+    public static CompressionTypeEnum findByType(byte compressionType) {
+        for (CompressionTypeEnum typeEnum : CompressionTypeEnum.values()) {
+            if (typeEnum.getType() == compressionType) {
+                return typeEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package com.brevity.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 消息体压缩算法都需实现这个接口，实现需要是线程安全的
+ */
+public interface Compressor {
+
+    /**
+     * 把in中可读的部分压缩后写入out
+     */
+    void compress(ByteBuf in, ByteBuf out) throws IOException;
+
+    /**
+     * 把in中可读的部分解压后写入out，rawLength是压缩前的长度
+     */
+    void decompress(ByteBuf in, ByteBuf out, int rawLength) throws IOException;
+}
@@ -0,0 +1,26 @@
+package com.brevity.rpc.compress;
+
+public class CompressorFactory {
+
+    private static final Compressor DEFLATE = new DeflateCompressor();
+
+    private static final Compressor SNAPPY = new SnappyCompressor();
+
+    /**
+     * 返回压缩算法的实现，NONE和不认识的类型返回null
+     */
+    public static Compressor getCompressor(byte compressionType) {
+        CompressionTypeEnum type = CompressionTypeEnum.findByType(compressionType);
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case DEFLATE:
+                return DEFLATE;
+            case SNAPPY:
+                return SNAPPY;
+            default:
+                return null;
+        }
+    }
+}
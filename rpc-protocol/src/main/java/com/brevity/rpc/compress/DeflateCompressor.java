@@ -0,0 +1,83 @@
+package com.brevity.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于JDK Deflater的压缩，Deflater和Inflater持有本地内存，按线程复用而不是每次创建
+ */
+public class DeflateCompressor implements Compressor {
+
+    // RPC对延迟敏感，使用最快的压缩级别，重复度高的数据压缩率仍然可观
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private static final int CHUNK_SIZE = 8192;
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        setInput(in, deflater);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.ensureWritable(CHUNK_SIZE);
+            if (out.hasArray()) {
+                int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + n);
+            } else {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int n = deflater.deflate(chunk);
+                out.writeBytes(chunk, 0, n);
+            }
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int rawLength) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        byte[] input = new byte[in.readableBytes()];
+        in.readBytes(input);
+        inflater.setInput(input);
+        out.ensureWritable(rawLength);
+        byte[] raw = out.hasArray() ? out.array() : new byte[rawLength];
+        int offset = out.hasArray() ? out.arrayOffset() + out.writerIndex() : 0;
+        int n = 0;
+        try {
+            while (!inflater.finished() && n < rawLength) {
+                int inflated = inflater.inflate(raw, offset + n, rawLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupted deflate data", e);
+        }
+        if (!inflater.finished() || n != rawLength) {
+            throw new IOException("deflate data does not match raw length " + rawLength);
+        }
+        if (out.hasArray()) {
+            out.writerIndex(out.writerIndex() + n);
+        } else {
+            out.writeBytes(raw, 0, n);
+        }
+    }
+
+    private static void setInput(ByteBuf in, Deflater deflater) {
+        int length = in.readableBytes();
+        if (in.hasArray()) {
+            deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            in.skipBytes(length);
+        } else {
+            byte[] input = new byte[length];
+            in.readBytes(input);
+            deflater.setInput(input);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.brevity.rpc.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.Snappy;
+
+import java.io.IOException;
+
+/**
+ * 基于Netty Snappy的压缩，直接在ByteBuf上读写，不需要中间byte[]。
+ * Snappy对象解压时有状态，每次使用新的实例
+ */
+public class SnappyCompressor implements Compressor {
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        new Snappy().encode(in, out, in.readableBytes());
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out, int rawLength) throws IOException {
+        out.ensureWritable(rawLength);
+        int start = out.writerIndex();
+        new Snappy().decode(in, out);
+        // Snappy只校验数据自身声明的长度，还要与扩展区中的压缩前长度一致
+        if (out.writerIndex() - start != rawLength || in.isReadable()) {
+            throw new IOException("snappy data does not match raw length " + rawLength);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.common.LoadReport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务端当前负载，附带在响应中发给消费端。报告每10ms最多生成一次，CPU使用率每秒采样一次
+ */
+public class ProviderLoad {
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long CPU_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final LongAdder ACTIVE = new LongAdder(); // 正在处理的请求数
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+    private static volatile LoadReport current;
+    private static volatile int cpuLoad = -1;
+    private static volatile long cpuSampleTime = System.nanoTime() - CPU_SAMPLE_INTERVAL_NANOS;
+
+    public static void requestStarted() {
+        ACTIVE.increment();
+    }
+
+    public static void requestFinished() {
+        ACTIVE.decrement();
+    }
+
+    public static LoadReport current() {
+        LoadReport report = current;
+        long now = System.nanoTime();
+        if (report == null || now - report.getTime() > REPORT_INTERVAL_NANOS) {
+            report = new LoadReport((int) ACTIVE.sum(), RpcRequestProcessor.getQueueSize(), cpuLoad(now));
+            current = report;
+        }
+        return report;
+    }
+
+    private static int cpuLoad(long now) {
+        if (now - cpuSampleTime > CPU_SAMPLE_INTERVAL_NANOS) {
+            cpuSampleTime = now;
+            double load = -1;
+            if (OS instanceof com.sun.management.OperatingSystemMXBean) {
+                load = ((com.sun.management.OperatingSystemMXBean) OS).getSystemCpuLoad();
+            }
+            if (load < 0 && OS.getSystemLoadAverage() >= 0) {
+                load = Math.min(1.0, OS.getSystemLoadAverage() / OS.getAvailableProcessors());
+            }
+            cpuLoad = load < 0 ? -1 : (int) (load * 1000);
+        }
+        return cpuLoad;
+    }
+}
@@ -0,0 +1,272 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.RpcBatch;
+import com.brevity.rpc.protocol.RpcProtocol;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 业务线程的写请求先放入多生产者单消费者队列，由channel的EventLoop批量取出写入，
+ * 一批最多maxBatchSize条消息后flush一次，避免每条消息一次跨线程任务和一次系统调用。
+ * 协商开启批量后，连续的请求或响应还会合并成一个BATCH/BATCH_RESPONSE帧，省去每条消息的协议头
+ */
+@Slf4j
+public class RpcChannelWriter implements Runnable {
+
+    public static final AttributeKey<RpcChannelWriter> KEY = AttributeKey.valueOf("channel_writer");
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static final LongAdder MESSAGE_COUNT = new LongAdder(); // 经过批量写出的消息数
+    private static final LongAdder BATCH_COUNT = new LongAdder(); // EventLoop上执行的批量写任务数
+    private static final LongAdder FLUSH_COUNT = new LongAdder(); // flush次数，每次flush对应一次写系统调用
+    private static final LongAdder BATCHED_MESSAGE_COUNT = new LongAdder(); // 合并进BATCH/BATCH_RESPONSE帧的消息数
+
+    private final Channel channel;
+    private final int maxBatchSize;
+    private final long maxDelayMicros; // 第一条消息入队后最多等待多久再写出，0表示尽快写出
+    private final Queue<PendingWrite> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final List<PendingWrite> batch = new ArrayList<>(); // 正在合并的消息，只在EventLoop中访问
+    private volatile boolean batching;
+
+    private static final class PendingWrite {
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        private PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+
+    public RpcChannelWriter(Channel channel, int maxBatchSize, long maxDelayMicros) {
+        this.channel = channel;
+        this.maxBatchSize = Math.min(0xFFFF, Math.max(1, maxBatchSize)); // 批量帧的消息数字段为2字节
+        this.maxDelayMicros = Math.max(0, maxDelayMicros);
+    }
+
+    public static RpcChannelWriter get(Channel channel) {
+        RpcChannelWriter writer = channel.attr(KEY).get();
+        if (writer == null) {
+            writer = new RpcChannelWriter(channel, DEFAULT_MAX_BATCH_SIZE, 0);
+            RpcChannelWriter old = channel.attr(KEY).setIfAbsent(writer);
+            if (old != null) {
+                writer = old;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * 不关心写结果的消息，写失败会触发exceptionCaught。只用于不会序列化失败的消息，例如流控的STREAM_CREDIT
+     */
+    public void write(Object msg) {
+        write(msg, channel.voidPromise());
+    }
+
+    /**
+     * 写出响应。编码或序列化失败时只让这一个请求失败：回复同一请求ID的FAIL，
+     * 而不是经exceptionCaught关闭连接，使连接上所有进行中的调用都失败
+     */
+    public void writeResponse(RpcProtocol<RpcResponse> response) {
+        write(response, channel.newPromise()).addListener(future -> {
+            if (!future.isSuccess()) {
+                writeFailure(response.getHeader(), future.cause());
+            }
+        });
+    }
+
+    private void writeFailure(MsgHeader header, Throwable cause) {
+        log.error("write response {} failed", header.getRequestID(), cause);
+        if (!channel.isActive()) {
+            return;
+        }
+        MsgHeader failHeader = new MsgHeader();
+        failHeader.setMagic(header.getMagic());
+        failHeader.setVersion(header.getVersion());
+        failHeader.setSerialization(header.getSerialization());
+        failHeader.setMsgType((byte) MsgType.RESPONSE.getType());
+        failHeader.setStatus((byte) MsgStatus.FAIL.getCode());
+        failHeader.setRequestID(header.getRequestID());
+        RpcResponse response = new RpcResponse();
+        response.setMessage("write response failed: " + cause);
+        RpcProtocol<RpcResponse> failure = new RpcProtocol<>();
+        failure.setHeader(failHeader);
+        failure.setBody(response);
+        // 失败响应再写失败时只打印日志，不再重试
+        write(failure, channel.newPromise()).addListener(future -> {
+            if (!future.isSuccess()) {
+                log.error("write failure response {} failed, cause: {}", header.getRequestID(),
+                        future.cause().toString());
+            }
+        });
+    }
+
+    public ChannelPromise write(Object msg, ChannelPromise promise) {
+        queue.offer(new PendingWrite(msg, promise));
+        if (scheduled.compareAndSet(false, true)) {
+            if (maxDelayMicros > 0) {
+                channel.eventLoop().schedule(this, maxDelayMicros, TimeUnit.MICROSECONDS);
+            } else {
+                channel.eventLoop().execute(this);
+            }
+        }
+        return promise;
+    }
+
+    @Override
+    public void run() {
+        BATCH_COUNT.increment();
+        int written = 0;
+        PendingWrite pendingWrite;
+        while ((pendingWrite = queue.poll()) != null) {
+            MESSAGE_COUNT.increment();
+            if (batching && isBatchable(pendingWrite.msg)) {
+                // 连续的同类请求或响应合并成一帧，遇到不能合并的消息时先写出已合并的部分，保持消息顺序
+                if (!batch.isEmpty() && !sameFrame(batch.get(0).msg, pendingWrite.msg)) {
+                    written += writeBatch();
+                }
+                batch.add(pendingWrite);
+                if (batch.size() < maxBatchSize) {
+                    continue;
+                }
+                written += writeBatch();
+            } else {
+                written += writeBatch();
+                channel.write(pendingWrite.msg, pendingWrite.promise);
+                written++;
+            }
+            if (written >= maxBatchSize) {
+                flush();
+                written = 0;
+            }
+        }
+        written += writeBatch();
+        if (written > 0) {
+            flush();
+        }
+        scheduled.set(false);
+        // 置位前有新消息入队但没有抢到调度权，需要再调度一次
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(this);
+        }
+    }
+
+    /**
+     * 写出已合并的消息，只有一条时按普通消息写出，返回写出的消息数
+     */
+    private int writeBatch() {
+        int size = batch.size();
+        if (size == 0) {
+            return 0;
+        }
+        if (size == 1) {
+            PendingWrite pendingWrite = batch.get(0);
+            channel.write(pendingWrite.msg, pendingWrite.promise);
+            batch.clear();
+            return 1;
+        }
+        List<RpcProtocol<Object>> messages = new ArrayList<>(size);
+        ChannelPromise[] promises = new ChannelPromise[size];
+        for (int i = 0; i < size; i++) {
+            PendingWrite pendingWrite = batch.get(i);
+            @SuppressWarnings("unchecked")
+            RpcProtocol<Object> message = (RpcProtocol<Object>) pendingWrite.msg;
+            messages.add(message);
+            promises[i] = pendingWrite.promise;
+        }
+        MsgHeader first = messages.get(0).getHeader();
+        MsgHeader header = new MsgHeader();
+        header.setMagic(first.getMagic());
+        header.setVersion(first.getVersion());
+        header.setSerialization(first.getSerialization());
+        header.setMsgType((byte) (first.getMsgType() == MsgType.REQUEST.getType()
+                ? MsgType.BATCH.getType() : MsgType.BATCH_RESPONSE.getType()));
+        header.setStatus((byte) 0x1);
+        RpcBatch body = new RpcBatch(messages);
+        RpcProtocol<RpcBatch> frame = new RpcProtocol<>();
+        frame.setHeader(header);
+        frame.setBody(body);
+        channel.write(frame).addListener(future -> {
+            // 编码失败的消息只通知它自己的promise，其余消息按整帧的写结果通知
+            for (int i = 0; i < promises.length; i++) {
+                Throwable failure = body.getFailure(i);
+                if (failure != null) {
+                    promises[i].tryFailure(failure);
+                } else if (future.isSuccess()) {
+                    promises[i].trySuccess();
+                } else {
+                    promises[i].tryFailure(future.cause());
+                }
+            }
+        });
+        BATCHED_MESSAGE_COUNT.add(size);
+        batch.clear();
+        return size;
+    }
+
+    private static boolean isBatchable(Object msg) {
+        if (!(msg instanceof RpcProtocol)) {
+            return false;
+        }
+        byte msgType = ((RpcProtocol<?>) msg).getHeader().getMsgType();
+        return msgType == MsgType.REQUEST.getType() || msgType == MsgType.RESPONSE.getType();
+    }
+
+    /**
+     * 报文类型、协议版本号和序列化算法都相同的消息才能放进同一帧
+     */
+    private static boolean sameFrame(Object a, Object b) {
+        MsgHeader x = ((RpcProtocol<?>) a).getHeader();
+        MsgHeader y = ((RpcProtocol<?>) b).getHeader();
+        return x.getMsgType() == y.getMsgType() && x.getVersion() == y.getVersion()
+                && x.getSerialization() == y.getSerialization();
+    }
+
+    /**
+     * 握手协商出BATCH能力后开启，之后连续的请求或响应合并成BATCH/BATCH_RESPONSE帧
+     */
+    public void setBatching(boolean batching) {
+        this.batching = batching;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    private void flush() {
+        channel.flush();
+        FLUSH_COUNT.increment();
+    }
+
+    public static long getMessageCount() {
+        return MESSAGE_COUNT.sum();
+    }
+
+    public static long getBatchCount() {
+        return BATCH_COUNT.sum();
+    }
+
+    public static long getFlushCount() {
+        return FLUSH_COUNT.sum();
+    }
+
+    public static long getBatchedMessageCount() {
+        return BATCHED_MESSAGE_COUNT.sum();
+    }
+}
@@ -0,0 +1,51 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.common.CompressionStats;
+import com.brevity.rpc.common.MethodKey;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcServiceHelper;
+import org.springframework.cglib.reflect.FastClass;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 服务方法调用器注册表，服务发布时为接口的每个方法预先生成调用器，处理请求时只需一次哈希查找。
+ * 每个方法同时分配一个从1开始的方法ID，服务端进程内不变，按ID查找只需一次下标访问
+ */
+public class RpcInvokerRegistry {
+
+    private final Map<MethodKey, RpcMethodInvoker> invokerMap = new ConcurrentHashMap<>();
+
+    private final List<RpcMethodInvoker> invokers = new CopyOnWriteArrayList<>(); // 下标为方法ID-1
+
+    public synchronized void register(String serviceName, String serviceVersion, Class<?> serviceInterface,
+                                      Object serviceBean, byte compression) {
+        FastClass fastClass = FastClass.create(serviceBean.getClass());
+        CompressionStats compressionStats = CompressionStats.get(
+                RpcServiceHelper.buildServiceKey(serviceName, serviceVersion));
+        for (Method method : serviceInterface.getMethods()) {
+            MethodKey methodKey = new MethodKey(serviceName, serviceVersion, method.getName(),
+                    method.getParameterTypes());
+            RpcMethodInvoker invoker = new RpcMethodInvoker(serviceBean,
+                    fastClass.getMethod(method.getName(), method.getParameterTypes()), methodKey,
+                    invokers.size() + 1, compression, compressionStats);
+            invokers.add(invoker);
+            invokerMap.put(methodKey, invoker);
+        }
+    }
+
+    public RpcMethodInvoker getInvoker(RpcRequest request) {
+        return invokerMap.get(MethodKey.of(request));
+    }
+
+    /**
+     * 按方法ID查找，ID不存在时返回null
+     */
+    public RpcMethodInvoker getInvoker(int id) {
+        return id > 0 && id <= invokers.size() ? invokers.get(id - 1) : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.common.CompressionStats;
+import com.brevity.rpc.common.MethodKey;
+import lombok.Getter;
+import org.springframework.cglib.reflect.FastMethod;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * 预先生成好的服务方法调用器，基于cglib FastMethod直接调用，不走反射
+ */
+public class RpcMethodInvoker {
+
+    private final Object serviceBean;
+
+    private final FastMethod fastMethod;
+
+    @Getter
+    private final MethodKey methodKey;
+
+    @Getter
+    private final int id; // 服务端分配的方法ID，消费端学到后请求中只需携带ID
+
+    @Getter
+    private final byte compression; // 响应消息体的压缩算法，由服务配置
+
+    @Getter
+    private final CompressionStats compressionStats; // 所属服务的压缩统计
+
+    public RpcMethodInvoker(Object serviceBean, FastMethod fastMethod, MethodKey methodKey, int id,
+                            byte compression, CompressionStats compressionStats) {
+        this.serviceBean = serviceBean;
+        this.fastMethod = fastMethod;
+        this.methodKey = methodKey;
+        this.id = id;
+        this.compression = compression;
+        this.compressionStats = compressionStats;
+    }
+
+    public Object invoke(Object[] params) throws InvocationTargetException {
+        return fastMethod.invoke(serviceBean, params);
+    }
+}
@@ -1,70 +1,204 @@
 package com.brevity.rpc.handler;
 
+import com.brevity.rpc.common.MethodKey;
+import com.brevity.rpc.common.RpcContext;
 import com.brevity.rpc.common.RpcRequest;
 import com.brevity.rpc.common.RpcResponse;
-import com.brevity.rpc.common.RpcServiceHelper;
+import com.brevity.rpc.protocol.Capabilities;
+import com.brevity.rpc.protocol.MsgExtensions;
 import com.brevity.rpc.protocol.MsgHeader;
 import com.brevity.rpc.protocol.MsgStatus;
 import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
 import com.brevity.rpc.protocol.RpcProtocol;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cglib.reflect.FastClass;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 public class RpcRequestHandler extends SimpleChannelInboundHandler<RpcProtocol<RpcRequest>> {
 
-    private final Map<String, Object> rpcServiceMap;
+    private static final LongAdder DEADLINE_EXCEEDED_COUNT = new LongAdder(); // 因调用方已超时而丢弃的请求数
 
-    public RpcRequestHandler(Map<String, Object> rpcServiceMap) {
-        this.rpcServiceMap = rpcServiceMap;
+    private final RpcInvokerRegistry invokerRegistry;
+
+    public RpcRequestHandler(RpcInvokerRegistry invokerRegistry) {
+        this.invokerRegistry = invokerRegistry;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, RpcProtocol<RpcRequest> protocol) {
+        // 截止时间从收到请求时开始计算，排队时间也算在内
+        MsgExtensions requestExtensions = protocol.getExtensions();
+        long deadline = requestExtensions != null && requestExtensions.getTimeoutMillis() > 0
+                ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestExtensions.getTimeoutMillis()) : 0;
         RpcRequestProcessor.submitRequest(() -> {
-            log.info("handle request: " + protocol.getBody().toString());
-            RpcProtocol<RpcResponse> responseProtocol = new RpcProtocol<>();
-            RpcResponse response = new RpcResponse();
             MsgHeader header = protocol.getHeader();
             header.setMsgType((byte) MsgType.RESPONSE.getType());
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                writeDeadlineExceeded(ctx, header);
+                return;
+            }
+            ProviderLoad.requestStarted();
+            RpcRequest request = protocol.getBody();
+            MsgExtensions extensions = protocol.getExtensions();
+            RpcMethodInvoker invoker;
+            int methodId = 0; // 需要告知消费端的方法ID
+            if (extensions != null && extensions.getMethodId() > 0) {
+                // 请求只携带了方法ID和参数
+                invoker = invokerRegistry.getInvoker(extensions.getMethodId());
+                if (invoker == null) {
+                    // 单独的状态码告知消费端忘掉该ID，其他失败不影响已学到的方法ID
+                    writeResponse(ctx, header, null, null,
+                            new RuntimeException("unknown method id: " + extensions.getMethodId()),
+                            MsgStatus.METHOD_ID_UNKNOWN);
+                    return;
+                }
+                MethodKey methodKey = invoker.getMethodKey();
+                request.setClassName(methodKey.getClassName());
+                request.setServiceVersion(methodKey.getServiceVersion());
+                request.setMethodName(methodKey.getMethodName());
+                request.setParameterTypes(methodKey.getParameterTypes());
+            } else {
+                invoker = invokerRegistry.getInvoker(request);
+                if (invoker != null && Capabilities.isEnabled(ctx.channel(), Capabilities.METHOD_ID)) {
+                    methodId = invoker.getId();
+                }
+            }
+            log.info("handle request: " + request.toString());
+            // 响应的扩展区：告知方法ID，服务配置了压缩且连接支持时压缩响应
+            MsgExtensions responseExtensions = new MsgExtensions();
+            responseExtensions.setMethodId(methodId);
+            if (invoker != null) {
+                if (extensions != null && extensions.getDecompressNanos() > 0) {
+                    invoker.getCompressionStats().recordDecompress(extensions.getDecompressNanos());
+                }
+                if (invoker.getCompression() != 0 && Capabilities.isEnabled(ctx.channel(), Capabilities.COMPRESSION)) {
+                    responseExtensions.setCompression(invoker.getCompression());
+                    responseExtensions.setCompressionStats(invoker.getCompressionStats());
+                }
+            }
+            Object result;
+            RpcContext context = RpcContext.getContext();
+            context.setDeadline(deadline);
             try {
-                Object result = handle(protocol.getBody());
-                response.setData(result);
-                header.setStatus((byte) MsgStatus.SUCCESS.getCode());
+                result = handle(invoker, request, extensions);
             } catch (Throwable e) {
-                header.setStatus((byte) MsgStatus.FAIL.getCode());
-                response.setMessage(e.toString());
-                log.error("process request {} error", header.getRequestID(), e);
+                writeResult(ctx, header, deadline, null, null, e);
+                return;
+            } finally {
+                context.setDeadline(0);
+            }
+            if (result instanceof Iterator) {
+                writeStream(ctx, protocol, (Iterator<?>) result);
+            } else if (result instanceof CompletableFuture) {
+                // 接口本身是异步的，等结果完成后再响应，不占用业务线程
+                ((CompletableFuture<?>) result).whenComplete((data, cause) ->
+                        writeResult(ctx, header, deadline, responseExtensions, data, cause));
+            } else {
+                writeResult(ctx, header, deadline, responseExtensions, result, null);
             }
-            responseProtocol.setHeader(header);
-            responseProtocol.setBody(response);
-            ctx.writeAndFlush(responseProtocol);
         });
     }
 
-    private Object handle(RpcRequest request) throws InvocationTargetException {
-        String serviceKey = RpcServiceHelper.buildServiceKey(request.getClassName(), request.getServiceVersion());
-        Object serviceBean = rpcServiceMap.get(serviceKey);
+    /**
+     * 方法返回Iterator：协商了流式能力的连接按窗口逐个发送元素，否则一次性收集成List响应
+     */
+    private void writeStream(ChannelHandlerContext ctx, RpcProtocol<RpcRequest> protocol, Iterator<?> iterator) {
+        MsgHeader header = protocol.getHeader();
+        if (Capabilities.isEnabled(ctx.channel(), Capabilities.STREAM)) {
+            MsgExtensions extensions = protocol.getExtensions();
+            int window = extensions != null && extensions.getStreamWindow() > 0
+                    ? extensions.getStreamWindow() : ProtocolConstants.DEFAULT_STREAM_WINDOW;
+            RpcStreamSender.start(ctx.channel(), header, iterator, window);
+            return;
+        }
+        List<Object> data = new ArrayList<>();
+        try {
+            iterator.forEachRemaining(data::add);
+        } catch (Throwable e) {
+            writeResponse(ctx, header, null, null, e);
+            return;
+        }
+        writeResponse(ctx, header, null, data, null);
+    }
 
-        if (serviceBean == null) {
-            throw new RuntimeException(String.format("service not exist: {}:{}", request.getClassName(), request.getServiceVersion()));
+    /**
+     * 执行期间调用方已经超时的，结果没人等待，不再序列化和发送
+     */
+    private void writeResult(ChannelHandlerContext ctx, MsgHeader header, long deadline, MsgExtensions extensions,
+                             Object data, Throwable cause) {
+        if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+            ProviderLoad.requestFinished();
+            writeDeadlineExceeded(ctx, header);
+            return;
         }
+        writeResponse(ctx, header, extensions, data, cause);
+    }
 
-        Class<?> serviceBeanClass = serviceBean.getClass();
-        String methodName = request.getMethodName();
-        Class<?>[] parameterTypes = request.getParameterTypes();
-        Object[] params = request.getParams();
+    /**
+     * 调用方已经超时，回复只有头部的DEADLINE_EXCEEDED，和心跳一样不经过序列化
+     */
+    private void writeDeadlineExceeded(ChannelHandlerContext ctx, MsgHeader header) {
+        DEADLINE_EXCEEDED_COUNT.increment();
+        header.setStatus((byte) MsgStatus.DEADLINE_EXCEEDED.getCode());
+        RpcProtocol<RpcResponse> responseProtocol = new RpcProtocol<>();
+        responseProtocol.setHeader(header);
+        RpcChannelWriter.get(ctx.channel()).writeResponse(responseProtocol);
+    }
+
+    public static long getDeadlineExceededCount() {
+        return DEADLINE_EXCEEDED_COUNT.sum();
+    }
 
-        FastClass fastClass = FastClass.create(serviceBeanClass);
-        int methodIndex = fastClass.getIndex(methodName, parameterTypes);
-        return fastClass.invoke(methodIndex, serviceBean, params);
+    private void writeResponse(ChannelHandlerContext ctx, MsgHeader header, MsgExtensions extensions, Object data,
+                               Throwable cause) {
+        writeResponse(ctx, header, extensions, data, cause, cause == null ? MsgStatus.SUCCESS : MsgStatus.FAIL);
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, MsgHeader header, MsgExtensions extensions, Object data,
+                               Throwable cause, MsgStatus status) {
+        ProviderLoad.requestFinished();
+        RpcProtocol<RpcResponse> responseProtocol = new RpcProtocol<>();
+        RpcResponse response = new RpcResponse();
+        header.setStatus((byte) status.getCode());
+        if (cause == null) {
+            response.setData(data);
+        } else {
+            response.setMessage(cause.toString());
+            log.error("process request {} error", header.getRequestID(), cause);
+        }
+        responseProtocol.setHeader(header);
+        responseProtocol.setBody(response);
+        if (header.getVersion() >= 2) {
+            // 只有支持扩展区的消费端才附带负载报告，旧版本消费端收到的仍是v1格式
+            if (extensions == null) {
+                extensions = new MsgExtensions();
+            }
+            extensions.setLoadReport(ProviderLoad.current());
+            responseProtocol.setExtensions(extensions);
+        }
+        // 业务线程不直接writeAndFlush，交给批量写出器合并后在EventLoop上写出
+        RpcChannelWriter.get(ctx.channel()).writeResponse(responseProtocol);
+    }
+
+    private Object handle(RpcMethodInvoker invoker, RpcRequest request, MsgExtensions extensions)
+            throws InvocationTargetException {
+        if (invoker == null) {
+            throw new RuntimeException(String.format("service not exist: %s:%s#%s", request.getClassName(),
+                    request.getServiceVersion(), request.getMethodName()));
+        }
+        return invoker.invoke(request.getParams());
     }
 
     @Override
@@ -79,6 +213,12 @@ public class RpcRequestHandler extends SimpleChannelInboundHandler<RpcProtocol<R
         super.userEventTriggered(ctx, evt);
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        RpcStreamSender.cancelAll(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         log.error("RPC server catch some exception");
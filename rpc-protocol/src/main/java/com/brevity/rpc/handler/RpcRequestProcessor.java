@@ -33,6 +33,14 @@ public class RpcRequestProcessor {
         threadPoolExecutor.submit(task);
     }
 
+    /**
+     * 排队等待执行的请求数
+     */
+    public static int getQueueSize() {
+        ThreadPoolExecutor executor = threadPoolExecutor;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
     public static void close() {
         if (threadPoolExecutor != null) {
             threadPoolExecutor.shutdown();
@@ -0,0 +1,174 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.RpcProtocol;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务端的流式响应：方法返回Iterator时，每次只发送消费端授予的元素数(credit)，用完后等待消费端的STREAM_CREDIT，
+ * 双方缓存的元素数都不超过窗口大小。迭代可能阻塞(例如读取数据库游标)，因此在业务线程池中进行
+ */
+@Slf4j
+public class RpcStreamSender implements Runnable {
+
+    private static final AttributeKey<Map<Long, RpcStreamSender>> KEY = AttributeKey.valueOf("stream_senders");
+
+    private final Channel channel;
+    private final MsgHeader requestHeader;
+    private final Iterator<?> iterator;
+    private final AtomicInteger credits;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private RpcStreamSender(Channel channel, MsgHeader requestHeader, Iterator<?> iterator, int window) {
+        this.channel = channel;
+        this.requestHeader = requestHeader;
+        this.iterator = iterator;
+        this.credits = new AtomicInteger(window);
+    }
+
+    /**
+     * 开始发送流式响应，先发送初始窗口内的元素
+     */
+    public static void start(Channel channel, MsgHeader requestHeader, Iterator<?> iterator, int window) {
+        RpcStreamSender sender = new RpcStreamSender(channel, requestHeader, iterator, window);
+        senders(channel).put(requestHeader.getRequestID(), sender);
+        sender.schedule();
+    }
+
+    /**
+     * 收到消费端的STREAM_CREDIT，credits不大于0表示消费端已放弃该调用
+     */
+    public static void grant(Channel channel, long requestId, int credits) {
+        RpcStreamSender sender = senders(channel).get(requestId);
+        if (sender == null) {
+            return;
+        }
+        if (credits <= 0) {
+            sender.finish();
+            return;
+        }
+        sender.credits.addAndGet(credits);
+        sender.schedule();
+    }
+
+    /**
+     * 连接断开，结束该连接上所有的流式响应
+     */
+    public static void cancelAll(Channel channel) {
+        for (RpcStreamSender sender : senders(channel).values()) {
+            sender.finish();
+        }
+    }
+
+    private static Map<Long, RpcStreamSender> senders(Channel channel) {
+        Map<Long, RpcStreamSender> senders = channel.attr(KEY).get();
+        if (senders == null) {
+            senders = new ConcurrentHashMap<>();
+            Map<Long, RpcStreamSender> old = channel.attr(KEY).setIfAbsent(senders);
+            if (old != null) {
+                senders = old;
+            }
+        }
+        return senders;
+    }
+
+    private void schedule() {
+        if (!done.get() && credits.get() > 0 && running.compareAndSet(false, true)) {
+            try {
+                RpcRequestProcessor.submitRequest(this);
+            } catch (RejectedExecutionException e) {
+                // 业务线程池已满，流不会再被调度，直接以失败结束，否则消费端要一直等到超时
+                running.set(false);
+                log.warn("stream response {} rejected, business thread pool is full", requestHeader.getRequestID());
+                fail("stream response rejected: business thread pool is full");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!done.get() && credits.get() > 0) {
+                if (!iterator.hasNext()) {
+                    write(MsgType.STREAM_END, MsgStatus.SUCCESS, new RpcResponse());
+                    finish();
+                    break;
+                }
+                RpcResponse response = new RpcResponse();
+                response.setData(iterator.next());
+                credits.decrementAndGet();
+                write(MsgType.STREAM_DATA, MsgStatus.SUCCESS, response);
+            }
+        } catch (Throwable e) {
+            log.error("stream response {} error", requestHeader.getRequestID(), e);
+            fail(e.toString());
+        } finally {
+            running.set(false);
+        }
+        // 发送期间收到了新的credit
+        schedule();
+    }
+
+    private void write(MsgType msgType, MsgStatus status, RpcResponse response) {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(requestHeader.getMagic());
+        header.setVersion(requestHeader.getVersion());
+        header.setSerialization(requestHeader.getSerialization());
+        header.setMsgType((byte) msgType.getType());
+        header.setStatus((byte) status.getCode());
+        header.setRequestID(requestHeader.getRequestID());
+        RpcProtocol<RpcResponse> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(response);
+        // 某个元素序列化失败时以失败结束这个流，不影响连接上的其他调用
+        RpcChannelWriter.get(channel).write(protocol, channel.newPromise()).addListener(future -> {
+            if (!future.isSuccess()) {
+                log.error("write stream response {} failed", requestHeader.getRequestID(), future.cause());
+                fail("write stream response failed: " + future.cause());
+            }
+        });
+    }
+
+    /**
+     * 以失败结束流，消费端收到后调用失败
+     */
+    private void fail(String message) {
+        if (finish()) {
+            RpcResponse response = new RpcResponse();
+            response.setMessage(message);
+            write(MsgType.RESPONSE, MsgStatus.FAIL, response);
+        }
+    }
+
+    /**
+     * 结束流并释放迭代器，已经结束过时返回false
+     */
+    private boolean finish() {
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        senders(channel).remove(requestHeader.getRequestID(), this);
+        ProviderLoad.requestFinished();
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            } catch (Exception e) {
+                log.warn("close stream {} error: {}", requestHeader.getRequestID(), e.toString());
+            }
+        }
+        return true;
+    }
+}
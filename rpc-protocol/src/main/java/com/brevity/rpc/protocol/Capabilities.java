@@ -0,0 +1,52 @@
+package com.brevity.rpc.protocol;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 连接级别的能力协商。消费端建连后发送HANDSHAKE，数据内容是4字节的能力位；服务端回复双方都支持的能力位，
+ * 之后双方才使用这些能力。旧版本服务端不认识HANDSHAKE会直接丢弃，不回复，连接保持原来的行为
+ */
+public final class Capabilities {
+
+    public static final AttributeKey<Integer> KEY = AttributeKey.valueOf("capabilities");
+
+    public static final int BATCH = 1; // 支持BATCH/BATCH_RESPONSE
+
+    public static final int STREAM = 1 << 1; // 支持STREAM_DATA/STREAM_END/STREAM_CREDIT
+
+    public static final int METHOD_ID = 1 << 2; // 支持用服务端分配的方法ID代替类名、方法名和参数类型
+
+    public static final int COMPRESSION = 1 << 3; // 支持压缩的消息体，压缩算法见CompressionTypeEnum
+
+    public static final int DEADLINE = 1 << 4; // 请求携带剩余超时时间，服务端丢弃已超时的请求
+
+    public static final int SUPPORTED = BATCH | STREAM | METHOD_ID | COMPRESSION | DEADLINE; // 本端支持的全部能力
+
+    private Capabilities() {
+    }
+
+    /**
+     * 构建握手消息，reply为false时是消费端发起的握手，为true时是服务端的回复
+     */
+    public static RpcProtocol<Integer> handshake(byte serialization, int capabilities, boolean reply) {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setSerialization(serialization);
+        header.setMsgType((byte) MsgType.HANDSHAKE.getType());
+        header.setStatus((byte) (reply ? MsgStatus.SUCCESS.getCode() : 0x1));
+        RpcProtocol<Integer> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(capabilities);
+        return protocol;
+    }
+
+    /**
+     * 连接上是否已协商启用了该能力
+     */
+    public static boolean isEnabled(Channel channel, int capability) {
+        Integer capabilities = channel.attr(KEY).get();
+        return capabilities != null && (capabilities & capability) != 0;
+    }
+}
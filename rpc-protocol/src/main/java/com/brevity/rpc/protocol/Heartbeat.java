@@ -0,0 +1,58 @@
+package com.brevity.rpc.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 心跳帧。PING/PONG没有数据内容，头部固定，预先编码成共享的缓冲区直接写出，不经过RpcEncoder和序列化。
+ * 消息ID为0的是空闲心跳，只用来确认连接存活；非0的是需要等待回复的探测(例如启动预热)，pong带回相同的消息ID
+ */
+public final class Heartbeat {
+
+    private static final int REQUEST_ID_OFFSET = 6; // 魔数、版本号、序列化算法、报文类型和状态之后
+
+    private static final ByteBuf PING = frame(MsgType.HEARTBEAT_PING, (byte) 0x1);
+
+    private static final ByteBuf PONG = frame(MsgType.HEARTBEAT_PONG, (byte) MsgStatus.SUCCESS.getCode());
+
+    private Heartbeat() {
+    }
+
+    /**
+     * 空闲心跳，共享同一个缓冲区，写出后不需要释放
+     */
+    public static ByteBuf ping() {
+        return PING.duplicate();
+    }
+
+    public static ByteBuf ping(ByteBufAllocator alloc, long requestId) {
+        return withRequestId(PING, alloc, requestId);
+    }
+
+    public static ByteBuf pong(ByteBufAllocator alloc, long requestId) {
+        return withRequestId(PONG, alloc, requestId);
+    }
+
+    private static ByteBuf withRequestId(ByteBuf template, ByteBufAllocator alloc, long requestId) {
+        if (requestId == 0) {
+            return template.duplicate();
+        }
+        ByteBuf frame = alloc.buffer(ProtocolConstants.HEADER_TOTAL_LEN);
+        frame.writeBytes(template, template.readerIndex(), ProtocolConstants.HEADER_TOTAL_LEN);
+        frame.setLong(REQUEST_ID_OFFSET, requestId);
+        return frame;
+    }
+
+    private static ByteBuf frame(MsgType msgType, byte status) {
+        ByteBuf frame = Unpooled.directBuffer(ProtocolConstants.HEADER_TOTAL_LEN);
+        frame.writeShort(ProtocolConstants.MAGIC);
+        frame.writeByte(ProtocolConstants.VERSION);
+        frame.writeByte(0); // 没有数据内容，不需要序列化算法
+        frame.writeByte(msgType.getType());
+        frame.writeByte(status);
+        frame.writeLong(0);
+        frame.writeInt(0);
+        return Unpooled.unreleasableBuffer(frame);
+    }
+}
@@ -0,0 +1,111 @@
+package com.brevity.rpc.protocol;
+
+import com.brevity.rpc.common.CompressionStats;
+import com.brevity.rpc.common.LoadReport;
+import io.netty.buffer.ByteBuf;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.io.Serializable;
+
+/**
+ * 协议扩展区，v2协议新增。状态字节最高位FLAG_EXTENSIONS置位时，数据内容以扩展区开头：
+ * | 扩展区长度 2byte | 类型 1byte | 长度 2byte | 值 | ... | 消息体 |
+ * 不认识的类型按长度跳过，新增类型不影响旧版本的解析
+ */
+@Data
+public class MsgExtensions implements Serializable {
+
+    private LoadReport loadReport; // 服务端负载报告，只出现在响应中
+
+    private int streamWindow; // 流式调用的初始窗口，0表示未指定
+
+    private int methodId; // 方法ID，0表示没有
+
+    private int timeoutMillis; // 调用方剩余的超时时间，0表示未指定
+
+    // 消息体的压缩算法，0表示未压缩。发送前设置表示消息体达到阈值时用该算法压缩，编码时不满足条件会清零
+    private byte compression;
+
+    private int rawLength; // 压缩前的消息体长度
+
+    // 以下字段只在本端使用，不编码：发送端记录压缩统计的位置，接收端的解压耗时
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient CompressionStats compressionStats;
+
+    private transient long decompressNanos;
+
+    public boolean isEmpty() {
+        return loadReport == null && streamWindow <= 0 && methodId <= 0 && timeoutMillis <= 0 && compression == 0;
+    }
+
+    public void encode(ByteBuf out) {
+        int lengthIndex = out.writerIndex();
+        out.writeShort(0);
+        if (loadReport != null) {
+            out.writeByte(ProtocolConstants.EXT_LOAD_REPORT);
+            out.writeShort(12);
+            out.writeInt(loadReport.getActiveRequests());
+            out.writeInt(loadReport.getQueueSize());
+            out.writeInt(loadReport.getCpuLoad());
+        }
+        if (streamWindow > 0) {
+            out.writeByte(ProtocolConstants.EXT_STREAM_WINDOW);
+            out.writeShort(4);
+            out.writeInt(streamWindow);
+        }
+        if (methodId > 0) {
+            out.writeByte(ProtocolConstants.EXT_METHOD_ID);
+            out.writeShort(4);
+            out.writeInt(methodId);
+        }
+        if (timeoutMillis > 0) {
+            out.writeByte(ProtocolConstants.EXT_TIMEOUT);
+            out.writeShort(4);
+            out.writeInt(timeoutMillis);
+        }
+        if (compression != 0) {
+            out.writeByte(ProtocolConstants.EXT_COMPRESSION);
+            out.writeShort(5);
+            out.writeByte(compression);
+            out.writeInt(rawLength);
+        }
+        out.setShort(lengthIndex, out.writerIndex() - lengthIndex - 2);
+    }
+
+    public static MsgExtensions decode(ByteBuf in) {
+        int extLen = in.readUnsignedShort();
+        int end = in.readerIndex() + extLen;
+        MsgExtensions extensions = new MsgExtensions();
+        while (in.readerIndex() < end) {
+            byte type = in.readByte();
+            int len = in.readUnsignedShort();
+            int next = in.readerIndex() + len;
+            switch (type) {
+                case ProtocolConstants.EXT_LOAD_REPORT:
+                    extensions.loadReport = new LoadReport(in.readInt(), in.readInt(), in.readInt());
+                    break;
+                case ProtocolConstants.EXT_STREAM_WINDOW:
+                    extensions.streamWindow = in.readInt();
+                    break;
+                case ProtocolConstants.EXT_METHOD_ID:
+                    extensions.methodId = in.readInt();
+                    break;
+                case ProtocolConstants.EXT_TIMEOUT:
+                    extensions.timeoutMillis = in.readInt();
+                    break;
+                case ProtocolConstants.EXT_COMPRESSION:
+                    extensions.compression = in.readByte();
+                    extensions.rawLength = in.readInt();
+                    break;
+                default:
+                    break;
+            }
+            in.readerIndex(next);
+        }
+        in.readerIndex(end);
+        return extensions;
+    }
+}
@@ -4,7 +4,9 @@ import lombok.Getter;
 
 public enum MsgStatus {
     SUCCESS(0),
-    FAIL(1);
+    FAIL(1),
+    DEADLINE_EXCEEDED(2), // 请求在服务端排队时调用方已经超时，没有执行
+    METHOD_ID_UNKNOWN(3); // 服务端不认识请求携带的方法ID(例如服务端已重启)，没有执行
 
     @Getter
     private final int code;
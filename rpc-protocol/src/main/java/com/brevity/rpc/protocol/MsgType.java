@@ -6,7 +6,13 @@ public enum MsgType {
     REQUEST(1),
     RESPONSE(2),
     HEARTBEAT_PING(3),
-    HEARTBEAT_PONG(4);
+    HEARTBEAT_PONG(4),
+    BATCH(5), // 多个请求合并成的一帧，协商后才使用
+    BATCH_RESPONSE(6), // 多个响应合并成的一帧
+    HANDSHAKE(7), // 建连后的能力协商，见Capabilities
+    STREAM_DATA(8), // 流式响应中的一个元素
+    STREAM_END(9), // 流式响应结束
+    STREAM_CREDIT(10); // 消费端授予服务端可以继续发送的元素数，0表示取消
 
     @Getter
     private final int type;
@@ -9,12 +9,41 @@ public class ProtocolConstants {
     +---------------------------------------------------------------+
     |                   数据内容 （长度不定）                          |
     +---------------------------------------------------------------+
+    状态字节最高位为1时，数据内容以扩展区开头，见MsgExtensions
+
+    BATCH/BATCH_RESPONSE的数据内容是多条消息，每条消息只保留消息ID、状态和长度，其余头部字段与外层相同：
+    | 消息数 2byte | 状态 1byte | 消息 ID 8byte | 数据长度 4byte | 数据内容 | ... |
+
+    HANDSHAKE和STREAM_CREDIT的数据内容是一个4字节整数，不经过序列化
+
+    DEADLINE_EXCEEDED状态的RESPONSE没有数据内容，只有头部
+
+    HEARTBEAT_PING/HEARTBEAT_PONG没有数据内容，见Heartbeat；旧版本消费端的ping带有字符串，服务端仍回复字符串pong
     */
 
     public static final int HEADER_TOTAL_LEN = 18;
 
     public static final short MAGIC = 0x10;
 
-    public static final byte VERSION = 0x1;
+    // v2: 支持扩展区，只有对端请求的版本不低于2时才会发送扩展区
+    // v3: 建连后握手协商能力(批量、流式响应、方法ID、压缩、超时传递)，旧版本服务端丢弃握手，连接按v2的方式工作
+    public static final byte VERSION = 0x3;
+
+    public static final byte FLAG_EXTENSIONS = (byte) 0x80; // 状态字节最高位，表示数据内容以扩展区开头
+
+    public static final byte STATUS_MASK = 0x7F; // 状态字节去掉标志位后的状态码
+
+    // 扩展区类型
+    public static final byte EXT_LOAD_REPORT = 1;
+    public static final byte EXT_STREAM_WINDOW = 2; // 流式调用的初始窗口，只出现在请求中
+    public static final byte EXT_METHOD_ID = 3; // 方法ID：请求中表示只携带了ID和参数，响应中是服务端分配给该方法的ID
+    public static final byte EXT_COMPRESSION = 4; // 消息体已压缩：| 压缩算法 1byte | 压缩前长度 4byte |
+    public static final byte EXT_TIMEOUT = 5; // 请求发出时调用方剩余的超时时间，单位毫秒，只出现在请求中
+
+    public static final int DEFAULT_STREAM_WINDOW = 64; // 请求中没有指定窗口时的流式调用初始窗口
+
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 4096; // 消息体达到该字节数才压缩
+
+    public static final int DEFAULT_MAX_DECOMPRESSED_LENGTH = 16 * 1024 * 1024; // 解压后消息体的长度上限
 
 }
@@ -0,0 +1,32 @@
+package com.brevity.rpc.protocol;
+
+import java.util.List;
+
+/**
+ * BATCH/BATCH_RESPONSE帧的内容。编码时逐条序列化，某条消息序列化失败时只跳过这一条并记录原因，
+ * 写出器据此只让这条消息的promise失败，帧中其他消息照常发送
+ */
+public class RpcBatch {
+    private final List<RpcProtocol<Object>> messages;
+    private final Throwable[] failures;
+
+    public RpcBatch(List<RpcProtocol<Object>> messages) {
+        this.messages = messages;
+        this.failures = new Throwable[messages.size()];
+    }
+
+    public List<RpcProtocol<Object>> getMessages() {
+        return messages;
+    }
+
+    public void fail(int index, Throwable cause) {
+        failures[index] = cause;
+    }
+
+    /**
+     * 第index条消息编码失败的原因，编码成功时为null
+     */
+    public Throwable getFailure(int index) {
+        return failures[index];
+    }
+}
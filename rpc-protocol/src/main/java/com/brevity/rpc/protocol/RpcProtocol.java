@@ -12,4 +12,5 @@ import java.io.Serializable;
 public class RpcProtocol<T> implements Serializable {
     private MsgHeader header;
     private T body;
+    private MsgExtensions extensions; // 可选的扩展区，为空时不编码
 }
@@ -3,6 +3,9 @@ package com.brevity.rpc.serialization;
 import com.caucho.hessian.io.HessianSerializerInput;
 import com.caucho.hessian.io.HessianSerializerOutput;
 import com.sun.xml.ws.encoding.soap.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -44,4 +47,34 @@ public class HessianSerialization implements RpcSerialization {
         }
         return result;
     }
+
+    @Override
+    public <T> void serialize(T object, ByteBuf out) throws IOException {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        try {
+            HessianSerializerOutput hessianOutput = new HessianSerializerOutput(new ByteBufOutputStream(out));
+            hessianOutput.writeObject(object);
+            hessianOutput.flush();
+        } catch (Exception e) {
+            throw new SerializationException(e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clz) throws IOException {
+        if (in == null) {
+            throw new NullPointerException();
+        }
+
+        T result;
+        try {
+            HessianSerializerInput hessianInput = new HessianSerializerInput(new ByteBufInputStream(in));
+            result = (T) hessianInput.readObject(clz);
+        } catch (Exception e) {
+            throw new SerializationException(e);
+        }
+        return result;
+    }
 }
@@ -1,8 +1,12 @@
 package com.brevity.rpc.serialization;
 
 import com.alibaba.fastjson.JSON;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * 使用fastjson实现json格式的序列化和反序列化
@@ -23,4 +27,22 @@ public class JsonSerialization implements RpcSerialization {
         T o = JSON.parseObject(data, clz);
         return o;
     }
+
+    @Override
+    public <T> void serialize(T object, ByteBuf out) throws IOException {
+        if (object == null) {
+            throw new NullPointerException("序列化对象不能为null");
+        }
+        JSON.writeJSONString(new ByteBufOutputStream(out), object);
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clz) throws IOException {
+        if (in.hasArray()) {
+            // 堆内存直接在底层数组上解析，不做拷贝
+            return JSON.parseObject(in.array(), in.arrayOffset() + in.readerIndex(), in.readableBytes(),
+                    StandardCharsets.UTF_8, clz);
+        }
+        return JSON.parseObject(ByteBufUtil.getBytes(in), clz);
+    }
 }
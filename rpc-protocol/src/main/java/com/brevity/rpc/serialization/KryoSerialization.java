@@ -5,35 +5,163 @@ import com.brevity.rpc.common.RpcResponse;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
 import com.sun.xml.ws.encoding.soap.SerializationException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Kryo序列化。序列化结果中的类以注册ID表示，消费端和服务端必须有完全相同的注册：
+ * RpcRequest和RpcResponse固定为10和11(即Kryo在内置类型之后分配的ID)，
+ * 用户类通过kryoRegistrations配置，写成"类名:ID"固定ID，两端的配置必须一致
+ */
+@Slf4j
 public class KryoSerialization implements RpcSerialization {
 
-    private final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(() -> {
+    public static final int RPC_REQUEST_ID = 10;
+
+    public static final int RPC_RESPONSE_ID = 11;
+
+    public static final int REGISTRATION_ID_BASE = 100; // 用户注册的类的ID不小于该值，避开Kryo内置类型的ID
+
+    private static final int POOL_SIZE = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024; // 超过该大小的缓冲区用完后不再缓存，避免长期占用内存
+
+    // 预注册的类，注册ID->类
+    private static final Map<Integer, Class<?>> REGISTERED_CLASSES = new ConcurrentSkipListMap<>();
+
+    // 有界的Kryo实例池，池空时新建，池满时丢弃归还的实例
+    private final KryoPool kryoPool = new KryoPool.Builder(KryoSerialization::createKryo)
+            .queue(new ArrayBlockingQueue<>(POOL_SIZE))
+            .build();
+
+    // 每个线程复用的Input/Output，缓冲区按需增长
+    private final ThreadLocal<Buffers> buffersThreadLocal = ThreadLocal.withInitial(Buffers::new);
+
+    private static class Buffers {
+        private Output output = new Output(BUFFER_SIZE, -1);
+        private final Output streamOutput = new Output(BUFFER_SIZE); // 写入ByteBuf时使用，满了就刷到ByteBuf中
+        private final Input input = new Input();
+        private byte[] scratch = new byte[BUFFER_SIZE]; // 直接内存中的数据先拷贝到这里再反序列化
+
+        private Output output() {
+            if (output.getBuffer().length > MAX_CACHED_BUFFER_SIZE) {
+                output = new Output(BUFFER_SIZE, -1);
+            } else {
+                output.clear();
+            }
+            return output;
+        }
+
+        private byte[] scratch(int size) {
+            if (scratch.length < size) {
+                byte[] buffer = new byte[size];
+                if (size <= MAX_CACHED_BUFFER_SIZE) {
+                    scratch = buffer;
+                }
+                return buffer;
+            }
+            return scratch;
+        }
+    }
+
+    /**
+     * 预注册参数和返回值类型，注册后序列化时只写入ID而不是完整类名。每一项为"类名:ID"或"类名"，
+     * 没有写ID的类按顺序分配不小于REGISTRATION_ID_BASE的最小空闲ID，依赖配置顺序，建议总是写明ID。
+     * 必须在第一次序列化之前调用
+     */
+    public static synchronized void register(List<String> registrations) {
+        if (registrations == null) {
+            return;
+        }
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        for (String registration : registrations) {
+            String className = registration.trim();
+            int id = -1;
+            int separator = className.lastIndexOf(':');
+            if (separator > 0) {
+                try {
+                    id = Integer.parseInt(className.substring(separator + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid kryo registration id: " + registration, e);
+                }
+                className = className.substring(0, separator).trim();
+                if (id < REGISTRATION_ID_BASE) {
+                    throw new IllegalArgumentException("kryo registration id must not be less than "
+                            + REGISTRATION_ID_BASE + ": " + registration);
+                }
+            }
+            Class<?> clz;
+            try {
+                clz = Class.forName(className, false, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("kryo registration class not found: " + className, e);
+            }
+            Integer registered = registeredId(clz);
+            if (registered != null) {
+                if (id >= 0 && id != registered) {
+                    throw new IllegalArgumentException("kryo class " + className + " already registered with id "
+                            + registered);
+                }
+                continue;
+            }
+            if (id < 0) {
+                id = REGISTRATION_ID_BASE;
+                while (REGISTERED_CLASSES.containsKey(id)) {
+                    id++;
+                }
+            } else if (REGISTERED_CLASSES.containsKey(id)) {
+                throw new IllegalArgumentException("kryo registration id " + id + " already used by "
+                        + REGISTERED_CLASSES.get(id).getName());
+            }
+            REGISTERED_CLASSES.put(id, clz);
+            log.info("kryo register class {} with id {}", clz.getName(), id);
+        }
+    }
+
+    private static Integer registeredId(Class<?> clz) {
+        for (Map.Entry<Integer, Class<?>> entry : REGISTERED_CLASSES.entrySet()) {
+            if (entry.getValue() == clz) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static Kryo createKryo() {
         Kryo kryo = new Kryo();
-        kryo.register(RpcRequest.class);
-        kryo.register(RpcResponse.class);
+        kryo.register(RpcRequest.class, RPC_REQUEST_ID);
+        kryo.register(RpcResponse.class, RPC_RESPONSE_ID);
+        for (Map.Entry<Integer, Class<?>> entry : REGISTERED_CLASSES.entrySet()) {
+            kryo.register(entry.getValue(), entry.getKey());
+        }
         return kryo;
-    });
+    }
 
     @Override
     public <T> byte[] serialize(T object) throws IOException {
         if (object == null) {
             throw new NullPointerException();
         }
+        Kryo kryo = kryoPool.borrow();
         try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            Output ot = new Output(byteArrayOutputStream);
-            Kryo kryo = kryoThreadLocal.get();
+            Output ot = buffersThreadLocal.get().output();
             kryo.writeObject(ot, object);
-            kryoThreadLocal.remove();
             return ot.toBytes();
         } catch (Exception e) {
             throw new SerializationException(e);
+        } finally {
+            kryoPool.release(kryo);
         }
     }
 
@@ -42,39 +170,60 @@ public class KryoSerialization implements RpcSerialization {
         if (data == null) {
             throw new NullPointerException("data can't be null");
         }
+        Kryo kryo = kryoPool.borrow();
         try {
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(data);
-            Input it = new Input(byteArrayInputStream);
-            Kryo kryo = kryoThreadLocal.get();
-            T result = kryo.readObject(it, clz);
-            return result;
+            Input it = buffersThreadLocal.get().input;
+            it.setBuffer(data);
+            return kryo.readObject(it, clz);
         } catch (Exception e) {
             throw new SerializationException(e);
+        } finally {
+            kryoPool.release(kryo);
         }
     }
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
 
+    @Override
+    public <T> void serialize(T object, ByteBuf out) throws IOException {
+        if (object == null) {
+            throw new NullPointerException();
+        }
+        Kryo kryo = kryoPool.borrow();
+        // 直接写入ByteBuf，只经过固定大小的缓冲区，不需要先把整个消息体序列化到可增长的堆内数组再拷贝
+        Output ot = buffersThreadLocal.get().streamOutput;
+        try {
+            ot.setOutputStream(new ByteBufOutputStream(out));
+            kryo.writeObject(ot, object);
+            ot.flush();
+        } catch (Exception e) {
+            throw new SerializationException(e);
+        } finally {
+            ot.setOutputStream(null);
+            kryoPool.release(kryo);
+        }
+    }
 
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clz) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("data can't be null");
+        }
+        Kryo kryo = kryoPool.borrow();
+        try {
+            Buffers buffers = buffersThreadLocal.get();
+            Input it = buffers.input;
+            int length = in.readableBytes();
+            if (in.hasArray()) {
+                it.setBuffer(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                byte[] scratch = buffers.scratch(length);
+                in.getBytes(in.readerIndex(), scratch, 0, length);
+                it.setBuffer(scratch, 0, length);
+            }
+            return kryo.readObject(it, clz);
+        } catch (Exception e) {
+            throw new SerializationException(e);
+        } finally {
+            kryoPool.release(kryo);
+        }
+    }
+}
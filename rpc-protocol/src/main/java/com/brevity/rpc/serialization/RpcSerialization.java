@@ -1,5 +1,8 @@
 package com.brevity.rpc.serialization;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
 import java.io.IOException;
 
 /**
@@ -11,4 +14,18 @@ public interface RpcSerialization {
 
     <T> T deserialize(byte[] data, Class<T> clz) throws IOException;
 
-}
\ No newline at end of file
+    /**
+     * 直接序列化到ByteBuf中，避免中间byte[]的分配和拷贝，默认退化为基于byte[]的实现
+     */
+    default <T> void serialize(T obj, ByteBuf out) throws IOException {
+        out.writeBytes(serialize(obj));
+    }
+
+    /**
+     * 直接从ByteBuf中反序列化，in中可读的部分就是完整的消息体，默认退化为基于byte[]的实现
+     */
+    default <T> T deserialize(ByteBuf in, Class<T> clz) throws IOException {
+        return deserialize(ByteBufUtil.getBytes(in), clz);
+    }
+
+}
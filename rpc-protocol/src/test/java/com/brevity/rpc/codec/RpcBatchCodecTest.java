@@ -0,0 +1,200 @@
+package com.brevity.rpc.codec;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.handler.RpcChannelWriter;
+import com.brevity.rpc.protocol.Capabilities;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 协商批量后，连续的请求和响应合并成一个BATCH/BATCH_RESPONSE帧，解码后还原成单条消息
+ */
+public class RpcBatchCodecTest {
+
+    private static final SerializationTypeEnum[] SERIALIZATIONS = {SerializationTypeEnum.HESSIAN,
+            SerializationTypeEnum.Kryo};
+
+    private static RpcProtocol<RpcRequest> request(SerializationTypeEnum serialization, long requestId) {
+        RpcRequest request = new RpcRequest();
+        request.setClassName("com.brevity.rpc.facade.HelloFacade");
+        request.setServiceVersion("1.0");
+        request.setMethodName("hello" + requestId);
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setParams(new Object[]{"brevity" + requestId});
+        return RpcCodecTest.protocol(RpcCodecTest.header(MsgType.REQUEST, serialization, (byte) 0x1, requestId),
+                request);
+    }
+
+    private static RpcProtocol<RpcResponse> response(SerializationTypeEnum serialization, long requestId) {
+        RpcResponse response = new RpcResponse();
+        response.setData("hello " + requestId);
+        return RpcCodecTest.protocol(RpcCodecTest.header(MsgType.RESPONSE, serialization,
+                (byte) MsgStatus.SUCCESS.getCode(), requestId), response);
+    }
+
+    /**
+     * 消费端发起握手，服务端回复后两端都开启批量
+     */
+    private static void handshake(EmbeddedChannel client, EmbeddedChannel server,
+                                  SerializationTypeEnum serialization) {
+        client.writeOutbound(Capabilities.handshake((byte) serialization.getType(), Capabilities.BATCH, false));
+        server.writeInbound((Object) client.readOutbound());
+        client.writeInbound((Object) server.readOutbound());
+    }
+
+    /**
+     * 把from写出的所有帧交给to解码，返回帧数
+     */
+    private static int transfer(EmbeddedChannel from, EmbeddedChannel to, byte expectedType) {
+        int frames = 0;
+        ByteBuf frame;
+        while ((frame = from.readOutbound()) != null) {
+            assertEquals(expectedType, frame.getByte(4));
+            frames++;
+            to.writeInbound(frame);
+        }
+        return frames;
+    }
+
+    @Test
+    public void handshakeEnablesBatching() {
+        EmbeddedChannel client = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        EmbeddedChannel server = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        assertFalse(RpcChannelWriter.get(client).isBatching());
+
+        handshake(client, server, SerializationTypeEnum.Kryo);
+
+        assertTrue(RpcChannelWriter.get(server).isBatching());
+        assertTrue(RpcChannelWriter.get(client).isBatching());
+        assertTrue(Capabilities.isEnabled(client, Capabilities.BATCH));
+    }
+
+    @Test
+    public void batchRoundTrip() {
+        for (SerializationTypeEnum serialization : SERIALIZATIONS) {
+            EmbeddedChannel client = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+            EmbeddedChannel server = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+            handshake(client, server, serialization);
+
+            List<ChannelPromise> promises = new ArrayList<>();
+            for (long id = 1; id <= 5; id++) {
+                promises.add(RpcChannelWriter.get(client).write(request(serialization, id), client.newPromise()));
+            }
+            client.runPendingTasks();
+            assertEquals(serialization.name(), 1, transfer(client, server, (byte) MsgType.BATCH.getType()));
+            for (ChannelPromise promise : promises) {
+                assertTrue(promise.isSuccess());
+            }
+            for (long id = 1; id <= 5; id++) {
+                RpcProtocol<RpcRequest> decoded = server.readInbound();
+                assertEquals(MsgType.REQUEST.getType(), decoded.getHeader().getMsgType());
+                assertEquals(id, decoded.getHeader().getRequestID());
+                assertEquals("hello" + id, decoded.getBody().getMethodName());
+                assertEquals("brevity" + id, decoded.getBody().getParams()[0]);
+            }
+            assertNull(server.readInbound());
+
+            for (long id = 1; id <= 5; id++) {
+                RpcChannelWriter.get(server).write(response(serialization, id));
+            }
+            server.runPendingTasks();
+            assertEquals(serialization.name(), 1, transfer(server, client,
+                    (byte) MsgType.BATCH_RESPONSE.getType()));
+            for (long id = 1; id <= 5; id++) {
+                RpcProtocol<RpcResponse> decoded = client.readInbound();
+                assertEquals(MsgType.RESPONSE.getType(), decoded.getHeader().getMsgType());
+                assertEquals(id, decoded.getHeader().getRequestID());
+                assertEquals("hello " + id, decoded.getBody().getData());
+            }
+            assertNull(client.readInbound());
+        }
+    }
+
+    public static class Unserializable {
+        private int value = 1;
+    }
+
+    @Test
+    public void unserializableItemFailsAlone() {
+        EmbeddedChannel client = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        EmbeddedChannel server = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        handshake(client, server, SerializationTypeEnum.HESSIAN);
+
+        List<ChannelPromise> promises = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            RpcProtocol<RpcRequest> request = request(SerializationTypeEnum.HESSIAN, id);
+            if (id == 3) {
+                request.getBody().setParams(new Object[]{new Unserializable()});
+            }
+            promises.add(RpcChannelWriter.get(client).write(request, client.newPromise()));
+        }
+        client.runPendingTasks();
+        assertEquals(1, transfer(client, server, (byte) MsgType.BATCH.getType()));
+        for (int i = 0; i < promises.size(); i++) {
+            assertEquals(i != 2, promises.get(i).isSuccess());
+        }
+        for (long id : new long[]{1, 2, 4, 5}) {
+            RpcProtocol<RpcRequest> decoded = server.readInbound();
+            assertEquals(id, decoded.getHeader().getRequestID());
+            assertEquals("brevity" + id, decoded.getBody().getParams()[0]);
+        }
+        assertNull(server.readInbound());
+
+        // 响应方向：序列化失败的响应换成FAIL，其余响应不受影响
+        for (long id = 1; id <= 5; id++) {
+            RpcProtocol<RpcResponse> response = response(SerializationTypeEnum.HESSIAN, id);
+            if (id == 3) {
+                response.getBody().setData(new Unserializable());
+            }
+            RpcChannelWriter.get(server).writeResponse(response);
+        }
+        server.runPendingTasks();
+        ByteBuf frame;
+        while ((frame = server.readOutbound()) != null) {
+            client.writeInbound(frame);
+        }
+        for (long id = 1; id <= 5; id++) {
+            RpcProtocol<RpcResponse> decoded = client.readInbound();
+            if (id < 3) {
+                assertEquals(id, decoded.getHeader().getRequestID());
+                assertEquals("hello " + id, decoded.getBody().getData());
+            } else if (id < 5) {
+                assertEquals(id + 1, decoded.getHeader().getRequestID());
+                assertEquals(MsgStatus.SUCCESS.getCode(), decoded.getHeader().getStatus());
+            } else {
+                assertEquals(3, decoded.getHeader().getRequestID());
+                assertEquals(MsgStatus.FAIL.getCode(), decoded.getHeader().getStatus());
+            }
+        }
+        assertNull(client.readInbound());
+        assertTrue(server.isActive());
+    }
+
+    @Test
+    public void singleMessageIsNotBatched() {
+        EmbeddedChannel client = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        EmbeddedChannel server = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder());
+        handshake(client, server, SerializationTypeEnum.Kryo);
+
+        RpcChannelWriter.get(client).write(request(SerializationTypeEnum.Kryo, 7));
+        client.runPendingTasks();
+        assertEquals(1, transfer(client, server, (byte) MsgType.REQUEST.getType()));
+        RpcProtocol<RpcRequest> decoded = server.readInbound();
+        assertEquals(7, decoded.getHeader().getRequestID());
+    }
+}
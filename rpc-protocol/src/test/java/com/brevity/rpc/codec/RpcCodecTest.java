@@ -0,0 +1,141 @@
+package com.brevity.rpc.codec;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 编解码往返测试：消息体直接序列化进ByteBuf，数据长度回填到头部
+ */
+public class RpcCodecTest {
+
+    static MsgHeader header(MsgType msgType, SerializationTypeEnum serialization, byte status, long requestId) {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setSerialization((byte) serialization.getType());
+        header.setMsgType((byte) msgType.getType());
+        header.setStatus(status);
+        header.setRequestID(requestId);
+        return header;
+    }
+
+    static <T> RpcProtocol<T> protocol(MsgHeader header, T body) {
+        RpcProtocol<T> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(body);
+        return protocol;
+    }
+
+    /**
+     * 用编码器编码后交给解码器，返回解码出的消息
+     */
+    static <T> T roundTrip(Object msg) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcEncoder());
+        encoder.writeOutbound(msg);
+        ByteBuf frame = encoder.readOutbound();
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+        decoder.writeInbound(frame);
+        return decoder.readInbound();
+    }
+
+    @Test
+    public void requestRoundTrip() {
+        // fastjson不能反序列化Class类型的参数类型，JSON只测试响应
+        for (SerializationTypeEnum serialization : new SerializationTypeEnum[]{SerializationTypeEnum.HESSIAN,
+                SerializationTypeEnum.Kryo}) {
+            RpcRequest request = new RpcRequest();
+            request.setClassName("com.brevity.rpc.facade.HelloFacade");
+            request.setServiceVersion("1.0.0");
+            request.setMethodName("hello");
+            request.setParameterTypes(new Class<?>[]{String.class});
+            request.setParams(new Object[]{"brevity"});
+
+            RpcProtocol<RpcRequest> decoded = roundTrip(protocol(
+                    header(MsgType.REQUEST, serialization, (byte) 0x1, 42), request));
+
+            assertEquals(serialization.name(), 42, decoded.getHeader().getRequestID());
+            assertEquals(request.getClassName(), decoded.getBody().getClassName());
+            assertEquals(request.getMethodName(), decoded.getBody().getMethodName());
+            assertArrayEquals(request.getParameterTypes(), decoded.getBody().getParameterTypes());
+            assertArrayEquals(request.getParams(), decoded.getBody().getParams());
+            assertNull(decoded.getExtensions());
+        }
+    }
+
+    @Test
+    public void responseRoundTrip() {
+        for (SerializationTypeEnum serialization : SerializationTypeEnum.values()) {
+            RpcResponse response = new RpcResponse();
+            response.setData("hello brevity");
+
+            RpcProtocol<RpcResponse> decoded = roundTrip(protocol(header(MsgType.RESPONSE, serialization,
+                    (byte) MsgStatus.SUCCESS.getCode(), 7), response));
+
+            assertEquals(serialization.name(), 7, decoded.getHeader().getRequestID());
+            assertEquals(MsgStatus.SUCCESS.getCode(), decoded.getHeader().getStatus());
+            assertEquals("hello brevity", decoded.getBody().getData());
+        }
+    }
+
+    @Test
+    public void bodyLengthIsBackPatched() {
+        RpcResponse response = new RpcResponse();
+        response.setData("hello brevity");
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcEncoder());
+        encoder.writeOutbound(protocol(header(MsgType.RESPONSE, SerializationTypeEnum.HESSIAN,
+                (byte) MsgStatus.SUCCESS.getCode(), 1), response));
+        ByteBuf frame = encoder.readOutbound();
+        try {
+            assertEquals(frame.readableBytes() - ProtocolConstants.HEADER_TOTAL_LEN,
+                    frame.getInt(ProtocolConstants.HEADER_TOTAL_LEN - 4));
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    public void deadlineExceededIsHeaderOnly() {
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcEncoder());
+        encoder.writeOutbound(protocol(header(MsgType.RESPONSE, SerializationTypeEnum.HESSIAN,
+                (byte) MsgStatus.DEADLINE_EXCEEDED.getCode(), 5), null));
+        ByteBuf frame = encoder.readOutbound();
+        assertEquals(ProtocolConstants.HEADER_TOTAL_LEN, frame.readableBytes());
+        assertEquals(0, frame.getInt(ProtocolConstants.HEADER_TOTAL_LEN - 4));
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+        decoder.writeInbound(frame);
+        RpcProtocol<RpcResponse> decoded = decoder.readInbound();
+        assertEquals(5, decoded.getHeader().getRequestID());
+        assertEquals(MsgStatus.DEADLINE_EXCEEDED.getCode(), decoded.getHeader().getStatus());
+        assertNull(decoded.getBody().getData());
+    }
+
+    @Test
+    public void partialFrameWaitsForMoreData() {
+        RpcResponse response = new RpcResponse();
+        response.setData("hello brevity");
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcEncoder());
+        encoder.writeOutbound(protocol(header(MsgType.RESPONSE, SerializationTypeEnum.Kryo,
+                (byte) MsgStatus.SUCCESS.getCode(), 3), response));
+        ByteBuf frame = encoder.readOutbound();
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+        decoder.writeInbound(frame.readRetainedSlice(10));
+        assertNull(decoder.readInbound());
+        decoder.writeInbound(frame);
+        RpcProtocol<RpcResponse> decoded = decoder.readInbound();
+        assertEquals("hello brevity", decoded.getBody().getData());
+    }
+}
@@ -0,0 +1,120 @@
+package com.brevity.rpc.codec;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.compress.CompressionTypeEnum;
+import com.brevity.rpc.protocol.MsgExtensions;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压缩消息体的编解码：正常往返，以及对端声明的压缩前长度不可信时拒绝该帧
+ */
+public class RpcCompressionCodecTest {
+
+    private static final SerializationTypeEnum[] SERIALIZATIONS = {SerializationTypeEnum.HESSIAN,
+            SerializationTypeEnum.Kryo};
+
+    private static final CompressionTypeEnum[] COMPRESSIONS = {CompressionTypeEnum.DEFLATE,
+            CompressionTypeEnum.SNAPPY};
+
+    // 只有压缩扩展时扩展区的布局：| 扩展区长度 2byte | 类型 1byte | 长度 2byte | 压缩算法 1byte | 压缩前长度 4byte |
+    private static final int EXT_TYPE_INDEX = ProtocolConstants.HEADER_TOTAL_LEN + 2;
+    private static final int RAW_LENGTH_INDEX = EXT_TYPE_INDEX + 4;
+
+    @Test
+    public void compressedRequestRoundTrip() {
+        for (SerializationTypeEnum serialization : SERIALIZATIONS) {
+            for (CompressionTypeEnum compression : COMPRESSIONS) {
+                String name = serialization + "/" + compression;
+                RpcRequest request = request();
+                ByteBuf frame = encode(serialization, compression, request);
+                assertEquals(name, ProtocolConstants.EXT_COMPRESSION, frame.getByte(EXT_TYPE_INDEX));
+
+                EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+                decoder.writeInbound(frame);
+                RpcProtocol<RpcRequest> decoded = decoder.readInbound();
+
+                assertEquals(name, 42, decoded.getHeader().getRequestID());
+                assertEquals(name, request.getMethodName(), decoded.getBody().getMethodName());
+                assertArrayEquals(name, request.getParams(), decoded.getBody().getParams());
+            }
+        }
+    }
+
+    @Test
+    public void oversizedRawLengthIsRejectedBeforeAllocation() {
+        for (CompressionTypeEnum compression : COMPRESSIONS) {
+            assertRejected(compression, Integer.MAX_VALUE, new RpcDecoder());
+            assertRejected(compression, -1, new RpcDecoder());
+            // 上限可配置，小于实际长度的上限同样拒绝
+            assertRejected(compression, rawLength(compression), new RpcDecoder(1024));
+        }
+    }
+
+    @Test
+    public void rawLengthMismatchIsRejected() {
+        for (CompressionTypeEnum compression : COMPRESSIONS) {
+            int rawLength = rawLength(compression);
+            assertRejected(compression, rawLength - 1, new RpcDecoder());
+            assertRejected(compression, rawLength + 1, new RpcDecoder());
+        }
+    }
+
+    private static void assertRejected(CompressionTypeEnum compression, int rawLength, RpcDecoder rpcDecoder) {
+        ByteBuf frame = encode(SerializationTypeEnum.Kryo, compression, request());
+        frame.setInt(RAW_LENGTH_INDEX, rawLength);
+        EmbeddedChannel decoder = new EmbeddedChannel(rpcDecoder);
+        try {
+            decoder.writeInbound(frame);
+        } catch (CorruptedFrameException e) {
+            assertTrue(decoder.inboundMessages().isEmpty());
+            return;
+        }
+        throw new AssertionError(compression + " frame with raw length " + rawLength + " should be rejected");
+    }
+
+    private static int rawLength(CompressionTypeEnum compression) {
+        ByteBuf frame = encode(SerializationTypeEnum.Kryo, compression, request());
+        try {
+            return frame.getInt(RAW_LENGTH_INDEX);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private static RpcRequest request() {
+        char[] text = new char[8192];
+        Arrays.fill(text, 'a');
+        RpcRequest request = new RpcRequest();
+        request.setClassName("com.brevity.rpc.facade.HelloFacade");
+        request.setServiceVersion("1.0.0");
+        request.setMethodName("hello");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setParams(new Object[]{new String(text)});
+        return request;
+    }
+
+    private static ByteBuf encode(SerializationTypeEnum serialization, CompressionTypeEnum compression,
+                                  RpcRequest request) {
+        RpcProtocol<RpcRequest> protocol = RpcCodecTest.protocol(
+                RpcCodecTest.header(MsgType.REQUEST, serialization, (byte) 0x1, 42), request);
+        MsgExtensions extensions = new MsgExtensions();
+        extensions.setCompression((byte) compression.getType());
+        protocol.setExtensions(extensions);
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcEncoder(0));
+        encoder.writeOutbound(protocol);
+        return encoder.readOutbound();
+    }
+}
@@ -0,0 +1,166 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.codec.RpcDecoder;
+import com.brevity.rpc.codec.RpcEncoder;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgExtensions;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 执行期间调用方已经超时的请求，结果不再发送，只回复DEADLINE_EXCEEDED；结果序列化失败只影响该请求
+ */
+public class RpcRequestHandlerTest {
+
+    public interface SlowService {
+        String echo(String message);
+    }
+
+    public interface BrokenService {
+        Object broken();
+    }
+
+    public static class Unserializable {
+        private int value = 1;
+    }
+
+    public static class BrokenServiceImpl implements BrokenService {
+        @Override
+        public Object broken() {
+            return new Unserializable();
+        }
+    }
+
+    public static class SlowServiceImpl implements SlowService {
+        @Override
+        public String echo(String message) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return message;
+        }
+    }
+
+    @Test
+    public void resultIsDroppedWhenDeadlinePassesDuringExecution() throws Exception {
+        RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
+        invokerRegistry.register(SlowService.class.getName(), "1.0", SlowService.class, new SlowServiceImpl(),
+                (byte) 0);
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcRequestHandler(invokerRegistry));
+        long before = RpcRequestHandler.getDeadlineExceededCount();
+
+        channel.writeInbound(request(9, 20));
+        RpcProtocol<RpcResponse> response = awaitResponse(channel);
+
+        assertEquals(9, response.getHeader().getRequestID());
+        assertEquals(MsgStatus.DEADLINE_EXCEEDED.getCode(), response.getHeader().getStatus());
+        assertNull(response.getBody());
+        assertNull(response.getExtensions());
+        assertEquals(before + 1, RpcRequestHandler.getDeadlineExceededCount());
+    }
+
+    @Test
+    public void resultIsSentWithinDeadline() throws Exception {
+        RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
+        invokerRegistry.register(SlowService.class.getName(), "1.0", SlowService.class, new SlowServiceImpl(),
+                (byte) 0);
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcRequestHandler(invokerRegistry));
+
+        channel.writeInbound(request(10, 5000));
+        RpcProtocol<RpcResponse> response = awaitResponse(channel);
+
+        assertEquals(MsgStatus.SUCCESS.getCode(), response.getHeader().getStatus());
+        assertEquals("brevity", response.getBody().getData());
+    }
+
+    @Test
+    public void unserializableResultFailsOnlyThatCall() throws Exception {
+        RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
+        invokerRegistry.register(BrokenService.class.getName(), "1.0", BrokenService.class, new BrokenServiceImpl(),
+                (byte) 0);
+        invokerRegistry.register(SlowService.class.getName(), "1.0", SlowService.class, new SlowServiceImpl(),
+                (byte) 0);
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder(), new RpcRequestHandler(invokerRegistry));
+
+        RpcProtocol<RpcRequest> broken = request(11, 5000);
+        broken.getBody().setClassName(BrokenService.class.getName());
+        broken.getBody().setMethodName("broken");
+        broken.getBody().setParameterTypes(new Class<?>[0]);
+        broken.getBody().setParams(new Object[0]);
+        channel.writeInbound(broken);
+        RpcProtocol<RpcResponse> failure = decode(awaitResponse(channel));
+
+        // 序列化失败的结果换成同一请求ID的FAIL，连接不关闭，之后的调用正常
+        assertEquals(11, failure.getHeader().getRequestID());
+        assertEquals(MsgStatus.FAIL.getCode(), failure.getHeader().getStatus());
+        assertTrue(channel.isActive());
+
+        channel.writeInbound(request(12, 5000));
+        RpcProtocol<RpcResponse> response = decode(awaitResponse(channel));
+
+        assertEquals(12, response.getHeader().getRequestID());
+        assertEquals(MsgStatus.SUCCESS.getCode(), response.getHeader().getStatus());
+        assertEquals("brevity", response.getBody().getData());
+    }
+
+    private static RpcProtocol<RpcRequest> request(long requestId, int timeoutMillis) {
+        MsgHeader header = new MsgHeader();
+        header.setMagic(ProtocolConstants.MAGIC);
+        header.setVersion(ProtocolConstants.VERSION);
+        header.setSerialization((byte) SerializationTypeEnum.HESSIAN.getType());
+        header.setMsgType((byte) MsgType.REQUEST.getType());
+        header.setStatus((byte) 0x1);
+        header.setRequestID(requestId);
+        RpcRequest request = new RpcRequest();
+        request.setClassName(SlowService.class.getName());
+        request.setServiceVersion("1.0");
+        request.setMethodName("echo");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setParams(new Object[]{"brevity"});
+        MsgExtensions extensions = new MsgExtensions();
+        extensions.setTimeoutMillis(timeoutMillis);
+        RpcProtocol<RpcRequest> protocol = new RpcProtocol<>();
+        protocol.setHeader(header);
+        protocol.setBody(request);
+        protocol.setExtensions(extensions);
+        return protocol;
+    }
+
+    /**
+     * 请求在业务线程池中执行，响应经批量写出器提交到EventLoop，这里轮询EmbeddedChannel的任务
+     */
+    private static <T> T awaitResponse(EmbeddedChannel channel) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            channel.runPendingTasks();
+            T response = channel.readOutbound();
+            if (response != null) {
+                return response;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("no response");
+    }
+
+    private static RpcProtocol<RpcResponse> decode(ByteBuf frame) {
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+        decoder.writeInbound(frame);
+        return decoder.readInbound();
+    }
+}
@@ -0,0 +1,86 @@
+package com.brevity.rpc.handler;
+
+import com.brevity.rpc.codec.RpcDecoder;
+import com.brevity.rpc.codec.RpcEncoder;
+import com.brevity.rpc.common.RpcResponse;
+import com.brevity.rpc.protocol.MsgHeader;
+import com.brevity.rpc.protocol.MsgStatus;
+import com.brevity.rpc.protocol.MsgType;
+import com.brevity.rpc.protocol.ProtocolConstants;
+import com.brevity.rpc.protocol.RpcProtocol;
+import com.brevity.rpc.serialization.SerializationTypeEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 业务线程池拒绝调度时，流式响应应以失败结束，而不是一直挂起
+ */
+public class RpcStreamSenderTest {
+
+    @Test
+    public void rejectedStreamFailsWithErrorFrame() throws Exception {
+        // 业务线程池还未创建时限制为1个线程、1个排队位置；已被其他测试创建时填满它的线程和队列
+        RpcRequestProcessor.init(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            fillBusinessPool(blocker);
+            EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder());
+            MsgHeader header = new MsgHeader();
+            header.setMagic(ProtocolConstants.MAGIC);
+            header.setVersion(ProtocolConstants.VERSION);
+            header.setSerialization((byte) SerializationTypeEnum.HESSIAN.getType());
+            header.setMsgType((byte) MsgType.REQUEST.getType());
+            header.setRequestID(7);
+
+            RpcStreamSender.start(channel, header, Arrays.asList(1, 2, 3).iterator(), 16);
+            channel.runPendingTasks();
+
+            RpcProtocol<RpcResponse> frame = decode(channel.readOutbound());
+            assertEquals(MsgType.RESPONSE.getType(), frame.getHeader().getMsgType());
+            assertEquals(MsgStatus.FAIL.getCode(), frame.getHeader().getStatus());
+            assertEquals(7, frame.getHeader().getRequestID());
+            assertTrue(frame.getBody().getMessage().contains("rejected"));
+            assertNull(channel.readOutbound());
+
+            // 之后的credit不会再调度已结束的流
+            RpcStreamSender.grant(channel, 7, 16);
+            channel.runPendingTasks();
+            assertNull(channel.readOutbound());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void fillBusinessPool(Runnable blocker) {
+        for (int i = 0; i < 10000; i++) {
+            try {
+                RpcRequestProcessor.submitRequest(blocker);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+        throw new AssertionError("business thread pool is not bounded");
+    }
+
+    private static <T> T decode(ByteBuf frame) {
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcDecoder());
+        decoder.writeInbound(frame);
+        return decoder.readInbound();
+    }
+}
@@ -0,0 +1,71 @@
+package com.brevity.rpc.serialization;
+
+import com.brevity.rpc.common.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Kryo直接写入ByteBuf以及注册ID的校验
+ */
+public class KryoSerializationTest {
+
+    public static class Pinned {
+    }
+
+    public static class Other {
+    }
+
+    @Test
+    public void serializeIntoDirectBufferLargerThanOutputBuffer() throws Exception {
+        KryoSerialization serialization = new KryoSerialization();
+        byte[] payload = new byte[64 * 1024];
+        Arrays.fill(payload, (byte) 7);
+        RpcResponse response = new RpcResponse();
+        response.setData(payload);
+
+        ByteBuf out = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        try {
+            serialization.serialize(response, out);
+            assertTrue(out.readableBytes() > payload.length);
+            assertArrayEquals(serialization.serialize(response), readAll(out.duplicate()));
+            RpcResponse decoded = serialization.deserialize(out, RpcResponse.class);
+            assertArrayEquals(payload, (byte[]) decoded.getData());
+        } finally {
+            out.release();
+        }
+    }
+
+    @Test
+    public void pinnedIdConflictIsRejected() {
+        KryoSerialization.register(Collections.singletonList(Pinned.class.getName() + ":150"));
+        // 同一个类重复注册相同ID是允许的
+        KryoSerialization.register(Collections.singletonList(Pinned.class.getName() + ":150"));
+        assertRejected(Other.class.getName() + ":150");
+        assertRejected(Pinned.class.getName() + ":151");
+        assertRejected(Other.class.getName() + ":" + (KryoSerialization.REGISTRATION_ID_BASE - 1));
+    }
+
+    private static void assertRejected(String registration) {
+        try {
+            KryoSerialization.register(Collections.singletonList(registration));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("registration should be rejected: " + registration);
+    }
+
+    private static byte[] readAll(ByteBuf buf) {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        assertEquals(0, buf.readableBytes());
+        return bytes;
+    }
+}
@@ -3,14 +3,17 @@ package com.brevity.rpc.provider;
 import com.brevity.rpc.codec.RpcDecoder;
 import com.brevity.rpc.codec.RpcEncoder;
 import com.brevity.rpc.common.RpcServiceConfig;
-import com.brevity.rpc.common.RpcServiceHelper;
 import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.compress.CompressionTypeEnum;
+import com.brevity.rpc.handler.RpcChannelWriter;
+import com.brevity.rpc.handler.RpcInvokerRegistry;
 import com.brevity.rpc.handler.RpcRequestHandler;
 import com.brevity.rpc.handler.RpcRequestProcessor;
 import com.brevity.rpc.provider.annotation.RpcService;
 import com.brevity.rpc.registry.RegistryFactory;
 import com.brevity.rpc.registry.RegistryService;
 import com.brevity.rpc.registry.RegistryType;
+import com.brevity.rpc.serialization.KryoSerialization;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
@@ -18,6 +21,7 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
@@ -26,8 +30,6 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.HashMap;
-import java.util.Map;
 
 @Slf4j
 public class RpcProvider implements InitializingBean, BeanPostProcessor {
@@ -35,10 +37,11 @@ public class RpcProvider implements InitializingBean, BeanPostProcessor {
     private final RpcServiceConfig serviceConfig;
     private String serviceAddress;
     private final RegistryService registryService;
-    private final Map<String, Object> rpcServiceMap = new HashMap<>();
+    private final RpcInvokerRegistry invokerRegistry = new RpcInvokerRegistry();
 
     public RpcProvider(RpcServiceConfig serviceConfig) throws UnknownHostException {
         this.serviceConfig = serviceConfig;
+        KryoSerialization.register(serviceConfig.getKryoRegistrations());
         serviceAddress = InetAddress.getLocalHost().getHostAddress();
         RegistryType registryType = RegistryType.valueOf(serviceConfig.getRegistryType());
         registryService = RegistryFactory.getInstance(serviceConfig.getRegistryAddr(), registryType);
@@ -65,12 +68,15 @@ public class RpcProvider implements InitializingBean, BeanPostProcessor {
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel socketChannel) throws Exception {
+                            socketChannel.attr(RpcChannelWriter.KEY).set(new RpcChannelWriter(socketChannel,
+                                    serviceConfig.getWriteBatchSize(), serviceConfig.getWriteMaxDelayMicros()));
                             socketChannel.pipeline()
+                                    .addLast(new FlushConsolidationHandler(serviceConfig.getWriteBatchSize(), false))
                                     .addLast(new IdleStateHandler(0, 0,
                                             serviceConfig.getAllIdleTimeSeconds()))
-                                    .addLast(new RpcEncoder())
+                                    .addLast(new RpcEncoder(serviceConfig.getCompressThreshold()))
                                     .addLast(new RpcDecoder())
-                                    .addLast(new RpcRequestHandler(rpcServiceMap))
+                                    .addLast(new RpcRequestHandler(invokerRegistry))
                             ;
                         }
                     })
@@ -114,7 +120,9 @@ public class RpcProvider implements InitializingBean, BeanPostProcessor {
                 serviceMeta.setWarmup(rpcService.warmup());
                 registryService.register(serviceMeta);
 
-                rpcServiceMap.put(RpcServiceHelper.buildServiceKey(serviceName, serviceVersion), bean);
+                // 预先生成该服务所有方法的调用器
+                invokerRegistry.register(serviceName, serviceVersion, rpcService.serviceInterface(), bean,
+                        (byte) CompressionTypeEnum.valueOf(rpcService.compression()).getType());
             } catch (Exception e) {
                 log.error("failed to register service {}#{}", serviceName, serviceVersion, e);
             }
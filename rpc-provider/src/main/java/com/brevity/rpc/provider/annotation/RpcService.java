@@ -20,4 +20,6 @@ public @interface RpcService {
 
     long warmup() default 300000; // 默认为5分钟
 
+    String compression() default "NONE"; // 响应消息体的压缩算法：NONE、DEFLATE、SNAPPY，达到compressThreshold才压缩
+
 }
@@ -4,6 +4,13 @@ public class RegistryFactory {
     private static volatile RegistryService registryService;
 
     public static RegistryService getInstance(String registryAddr, RegistryType registryType) {
+        return getInstance(registryAddr, registryType, null);
+    }
+
+    /**
+     * @param snapshotDir 服务列表本地快照目录，为空时不使用快照，只对ZooKeeper注册中心生效
+     */
+    public static RegistryService getInstance(String registryAddr, RegistryType registryType, String snapshotDir) {
         if (null == registryService) {
             synchronized (RegistryFactory.class) {
                 if (null == registryService) {
@@ -12,10 +19,10 @@ public class RegistryFactory {
                             registryService = new EurekaRegistryService(registryAddr);
                             break;
                         case ZOOKEEPER:
-                            registryService = new ZookeeperRegistryService(registryAddr);
+                            registryService = new ZookeeperRegistryService(registryAddr, snapshotDir);
                             break;
                         default:
-                            registryService = new ZookeeperRegistryService(registryAddr);
+                            registryService = new ZookeeperRegistryService(registryAddr, snapshotDir);
                             break;
                     }
                 }
@@ -23,5 +23,12 @@ public interface RegistryService {
 
     void destory() throws Exception;
 
+    /**
+     * 服务列表的版本号，任意服务的服务列表变化后递增，消费端据此判断缓存的路由是否过期
+     */
+    default long getVersion() {
+        return 0;
+    }
+
 
 }
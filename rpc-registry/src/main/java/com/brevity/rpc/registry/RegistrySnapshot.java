@@ -0,0 +1,187 @@
+package com.brevity.rpc.registry;
+
+import com.brevity.rpc.common.ServiceMeta;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 服务列表的本地快照。启动时先从磁盘加载上次的服务列表，注册中心不可用或连接较慢时消费端仍能立即路由；
+ * 服务列表每次变化后在后台线程写入，多次变化合并为一次写入。文件先写到临时文件再原子替换，不会读到写了一半的快照。
+ * 写入线程：每个快照一个名为registry-snapshot的守护线程，第一次写入时才创建，不会阻止JVM退出，
+ * 退出前最后一次变化可能来不及写入，下次启动时注册中心会给出最新的列表。
+ * 目录不能创建或不可写时只打印一次警告，之后不再写入；写入失败时同样打印警告并停止写入
+ */
+@Slf4j
+public class RegistrySnapshot {
+
+    private static final int MAGIC = 0x62727370; // "brsp"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_COUNT = 1 << 20; // 服务数和单个服务的节点数上限，超过说明文件已损坏
+
+    private final Path file;
+    private final Map<String, List<ServiceMeta>> serviceMap; // 需要持久化的服务列表，由注册中心维护
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean writable;
+    private volatile ExecutorService executor;
+
+    public RegistrySnapshot(String dir, String registryAddr, Map<String, List<ServiceMeta>> serviceMap) {
+        // 不同注册中心集群的服务列表写到不同文件
+        this.file = Paths.get(dir, "registry-" + registryAddr.replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot");
+        this.serviceMap = serviceMap;
+        this.writable = checkWritable();
+    }
+
+    private boolean checkWritable() {
+        Path dir = file.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            log.warn("registry snapshot dir {} can't be created, snapshot disabled, cause: {}", dir, e.toString());
+            return false;
+        }
+        if (!Files.isWritable(dir)) {
+            log.warn("registry snapshot dir {} is not writable, snapshot is read only", dir);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读取快照，文件不存在、格式不正确或已损坏时返回空的服务列表，不影响注册中心的启动
+     */
+    public Map<String, List<ServiceMeta>> load() {
+        if (!Files.exists(file)) {
+            return Collections.emptyMap();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                log.warn("ignore registry snapshot {}, unknown format", file);
+                return Collections.emptyMap();
+            }
+            int serviceCount = readCount(in);
+            Map<String, List<ServiceMeta>> services = new HashMap<>();
+            for (int i = 0; i < serviceCount; i++) {
+                String serviceKey = in.readUTF();
+                int size = readCount(in);
+                List<ServiceMeta> serviceMetaList = new ArrayList<>(Math.min(size, 16));
+                for (int j = 0; j < size; j++) {
+                    ServiceMeta serviceMeta = new ServiceMeta();
+                    serviceMeta.setServiceName(in.readUTF());
+                    serviceMeta.setServiceVersion(in.readUTF());
+                    serviceMeta.setServiceAddr(in.readUTF());
+                    serviceMeta.setServicePort(in.readInt());
+                    serviceMeta.setWeight(in.readInt());
+                    serviceMeta.setCreateTime(in.readLong());
+                    serviceMeta.setWarmup(in.readLong());
+                    serviceMetaList.add(serviceMeta);
+                }
+                services.put(serviceKey, Collections.unmodifiableList(serviceMetaList));
+            }
+            log.info("load registry snapshot {}, {} services", file, services.size());
+            return services;
+        } catch (IOException | RuntimeException e) {
+            log.warn("load registry snapshot {} failed, cause: {}", file, e.toString());
+            return Collections.emptyMap();
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("corrupted snapshot, illegal count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * 服务列表变化后调用，在后台线程写入当前的全部服务列表，写入前发生的多次变化只写一次
+     */
+    public void scheduleSave() {
+        if (writable && scheduled.compareAndSet(false, true)) {
+            executor().execute(() -> {
+                scheduled.set(false);
+                save();
+            });
+        }
+    }
+
+    private ExecutorService executor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    current = Executors.newSingleThreadExecutor(r -> {
+                        Thread thread = new Thread(r, "registry-snapshot");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void save() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                Map<String, List<ServiceMeta>> services = new HashMap<>(serviceMap);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(services.size());
+                for (Map.Entry<String, List<ServiceMeta>> entry : services.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (ServiceMeta serviceMeta : entry.getValue()) {
+                        writeString(out, serviceMeta.getServiceName());
+                        writeString(out, serviceMeta.getServiceVersion());
+                        writeString(out, serviceMeta.getServiceAddr());
+                        out.writeInt(serviceMeta.getServicePort());
+                        out.writeInt(serviceMeta.getWeight());
+                        out.writeLong(serviceMeta.getCreateTime());
+                        out.writeLong(serviceMeta.getWarmup());
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // 磁盘满或权限变化后每次变化都会失败，停止写入，已有的快照保持不变
+            writable = false;
+            log.warn("save registry snapshot {} failed, snapshot is read only from now on, cause: {}", file,
+                    e.toString());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // 临时文件不影响下次加载
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+}
@@ -12,33 +12,54 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
 
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 public final class ZookeeperRegistryService implements RegistryService {
     public static final int SLEEP_TIME_MS = 1000;
     public static final int MAX_RETRIES = 3;
     public static final String NAMESPACE = "brevity_rpc";
+    public static final long LOOKUP_TIMEOUT_MS = 10000; // 首次查询等待初始加载的最长时间
     public static CuratorFramework curator;
 
     private final Map<String, List<ServiceMeta>> SERVICE_ADDRESS_MAP = new ConcurrentHashMap<>();
     private final Set<String> SERVICE_PUBLISH_SET = ConcurrentHashMap.newKeySet();
     private final RpcSerialization serialization = SerializationFactory.getRpcSerialization((byte) SerializationTypeEnum.JSON.getType());
-    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ServiceWatcher> SERVICE_WATCHER_MAP = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final RegistrySnapshot snapshot;
 
     public ZookeeperRegistryService(String registryAddr) {
+        this(registryAddr, null);
+    }
+
+    /**
+     * @param snapshotDir 本地快照目录，为空时不使用快照
+     */
+    public ZookeeperRegistryService(String registryAddr, String snapshotDir) {
+        if (snapshotDir != null && !snapshotDir.isEmpty()) {
+            // 在连接注册中心之前加载快照，连接完成前的查询直接使用上次的服务列表
+            snapshot = new RegistrySnapshot(snapshotDir, registryAddr, SERVICE_ADDRESS_MAP);
+            SERVICE_ADDRESS_MAP.putAll(snapshot.load());
+        } else {
+            snapshot = null;
+        }
         RetryPolicy retryPolicy = new ExponentialBackoffRetry(SLEEP_TIME_MS, MAX_RETRIES);
         curator = CuratorFrameworkFactory.builder().connectString(registryAddr)
                 .retryPolicy(retryPolicy)
@@ -76,69 +97,147 @@ public final class ZookeeperRegistryService implements RegistryService {
     }
 
     /**
-     * 服务发现
+     * 服务发现。服务列表由子节点监听增量维护，首次查询时等待监听完成初始加载，不持有全局锁；
+     * 本地快照中有该服务时不等待
      */
     @Override
     public List<ServiceMeta> lookupService(RpcRequest rpcRequest) throws RpcServiceException {
-        List<ServiceMeta> serviceMetaList = null;
         String serviceKey = RpcServiceHelper.buildServiceKey(rpcRequest.getClassName(), rpcRequest.getServiceVersion());
-        if (SERVICE_ADDRESS_MAP.containsKey(serviceKey)) {
-            serviceMetaList = SERVICE_ADDRESS_MAP.get(serviceKey);
-        } else {
-            try {
-                lock.lock();
-                serviceMetaList = SERVICE_ADDRESS_MAP.get(serviceKey);
-                if (serviceMetaList == null) {
-                    String servicePath = "/" + serviceKey;
-                    List<String> childs = curator.getChildren().forPath(servicePath);
-                    List<String> result = new ArrayList<>();
-                    for (String child : childs) {
-                        byte[] bytes = curator.getData().forPath(servicePath + "/" + child);
-                        result.add(new String(bytes, StandardCharsets.UTF_8));
-                    }
-                    serviceMetaList = getServiceFromZK(serviceKey);
-                    SERVICE_ADDRESS_MAP.put(serviceKey, serviceMetaList);
-                    notifyListener(serviceKey);
-                }
-            } catch (Exception e) {
-                log.error("Registery error：", e.getMessage());
-                throw new RpcServiceException(RpcErrorMessageEnum.REGISTERY_SERVER_ERROR, e.getMessage());
-            } finally {
-                lock.unlock();
+        List<ServiceMeta> serviceMetaList = SERVICE_ADDRESS_MAP.get(serviceKey);
+        if (serviceMetaList != null && SERVICE_WATCHER_MAP.containsKey(serviceKey)) {
+            return serviceMetaList;
+        }
+        try {
+            notifyListener(serviceKey);
+            if (serviceMetaList != null) {
+                // 来自本地快照的服务列表，先按它路由，监听初始加载完成后以注册中心的数据为准
+                return serviceMetaList;
             }
+            return SERVICE_WATCHER_MAP.get(serviceKey).initialized.get(LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RpcServiceException(RpcErrorMessageEnum.REGISTERY_SERVER_ERROR, e.toString());
+        } catch (Exception e) {
+            log.error("Registery error：{}", e.toString());
+            throw new RpcServiceException(RpcErrorMessageEnum.REGISTERY_SERVER_ERROR, e.toString());
         }
-        return serviceMetaList;
     }
 
-    public List<ServiceMeta> getServiceFromZK(String serviceKey) throws Exception {
-        String servicePath = "/" + serviceKey;
-        List<String> childs = curator.getChildren().forPath(servicePath);
-        List<ServiceMeta> serviceMetaList = new ArrayList<>(childs.size());
-        for (String child : childs) {
-            byte[] bytes = curator.getData().forPath(servicePath + "/" + child);
-            serviceMetaList.add(serialization.deserialize(bytes, ServiceMeta.class));
+    /**
+     * 监听服务的子节点，同一个服务只监听一次。PathChildrenCache初始加载时用后台(异步)请求读取子节点列表，
+     * 再并行读取所有子节点的数据，之后的变化以增量事件送达
+     */
+    @Override
+    public void notifyListener(String serviceKey) throws Exception {
+        if (SERVICE_WATCHER_MAP.containsKey(serviceKey)) {
+            return;
+        }
+        ServiceWatcher watcher = new ServiceWatcher(serviceKey);
+        if (SERVICE_WATCHER_MAP.putIfAbsent(serviceKey, watcher) != null) {
+            return;
+        }
+        PathChildrenCache pathChildrenCache = new PathChildrenCache(curator, "/" + serviceKey, true);
+        pathChildrenCache.getListenable().addListener(watcher);
+        try {
+            pathChildrenCache.start(PathChildrenCache.StartMode.POST_INITIALIZED_EVENT);
+        } catch (Exception e) {
+            SERVICE_WATCHER_MAP.remove(serviceKey, watcher);
+            watcher.initialized.completeExceptionally(e);
+            throw e;
         }
-        return serviceMetaList;
     }
 
-    @Override
-    public void notifyListener(String serviceKey) throws Exception {
-        String servicePath = "/" + serviceKey;
-        PathChildrenCache pathChildrenCache = new PathChildrenCache(curator, servicePath, true);
-        PathChildrenCacheListener listener = new PathChildrenCacheListener() {
-            @Override
-            public void childEvent(CuratorFramework curatorFramework, PathChildrenCacheEvent pathChildrenCacheEvent) throws Exception {
-                List<ServiceMeta> serviceMetaList = getServiceFromZK(serviceKey);
-                log.warn("ServiceMetaList changed: " + serviceKey);
-                SERVICE_ADDRESS_MAP.put(serviceKey, serviceMetaList);
+    /**
+     * 一个服务的子节点监听，按事件增量更新服务列表：新增和修改只反序列化变化的节点，删除直接移除，
+     * 未变化的ServiceMeta对象保持不变。事件由PathChildrenCache的事件线程串行回调
+     */
+    private final class ServiceWatcher implements PathChildrenCacheListener {
+        private final String serviceKey;
+        private final Map<String, Provider> providers = new LinkedHashMap<>(); // 子节点路径->服务端
+        private final CompletableFuture<List<ServiceMeta>> initialized = new CompletableFuture<>();
+
+        private ServiceWatcher(String serviceKey) {
+            this.serviceKey = serviceKey;
+        }
+
+        @Override
+        public void childEvent(CuratorFramework curatorFramework, PathChildrenCacheEvent event) {
+            switch (event.getType()) {
+                case CHILD_ADDED:
+                case CHILD_UPDATED:
+                    if (!put(event.getData())) {
+                        return;
+                    }
+                    break;
+                case CHILD_REMOVED:
+                    if (providers.remove(event.getData().getPath()) == null) {
+                        return;
+                    }
+                    break;
+                case INITIALIZED:
+                    break;
+                default:
+                    // 连接状态事件，重连后PathChildrenCache会重新读取子节点并以增量事件送达
+                    return;
+            }
+            // 初始加载时每个子节点一个CHILD_ADDED事件，加载完成后再统一发布，避免反复复制列表
+            if (event.getType() == PathChildrenCacheEvent.Type.INITIALIZED || initialized.isDone()) {
+                publish();
+            }
+        }
+
+        private boolean put(ChildData childData) {
+            Provider old = providers.get(childData.getPath());
+            long mzxid = childData.getStat() == null ? 0 : childData.getStat().getMzxid();
+            if (old != null && mzxid != 0 && old.mzxid == mzxid) {
+                return false;
+            }
+            byte[] data = childData.getData();
+            if (data == null || data.length == 0) {
+                return false;
+            }
+            try {
+                providers.put(childData.getPath(), new Provider(mzxid, serialization.deserialize(data, ServiceMeta.class)));
+                return true;
+            } catch (Exception e) {
+                log.warn("ignore invalid service node {}, cause: {}", childData.getPath(), e.toString());
+                return false;
             }
-        };
-        pathChildrenCache.getListenable().addListener(listener);
-        pathChildrenCache.start();
+        }
+
+        private void publish() {
+            List<ServiceMeta> serviceMetaList = new ArrayList<>(providers.size());
+            for (Provider provider : providers.values()) {
+                serviceMetaList.add(provider.serviceMeta);
+            }
+            serviceMetaList = Collections.unmodifiableList(serviceMetaList);
+            SERVICE_ADDRESS_MAP.put(serviceKey, serviceMetaList);
+            version.incrementAndGet();
+            if (snapshot != null) {
+                snapshot.scheduleSave();
+            }
+            log.warn("ServiceMetaList changed: {}, size: {}", serviceKey, serviceMetaList.size());
+            initialized.complete(serviceMetaList);
+        }
+    }
+
+    private static final class Provider {
+        private final long mzxid; // 节点数据最后一次修改的事务ID，相同说明数据没有变化
+        private final ServiceMeta serviceMeta;
+
+        private Provider(long mzxid, ServiceMeta serviceMeta) {
+            this.mzxid = mzxid;
+            this.serviceMeta = serviceMeta;
+        }
     }
 
     @Override
     public void destory() throws Exception {
 
     }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
 }
@@ -1,6 +1,10 @@
 package com.brevity.rpc.registry.loadbalancer;
 
+import com.brevity.rpc.common.RpcConsumerConfig;
 import com.brevity.rpc.registry.loadbalancer.impl.ConsistentHashLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.LeastActiveLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.LoadAwareLoadBalancer;
+import com.brevity.rpc.registry.loadbalancer.impl.PeakEwmaLoadBalancer;
 import com.brevity.rpc.registry.loadbalancer.impl.RoundRobinLoadBalancer;
 import com.brevity.rpc.registry.loadbalancer.impl.RandomLoadBalancer;
 
@@ -8,7 +12,7 @@ public class LoadBalancerFactory {
 
     private static volatile ServiceLoadBalancer loadBalancer;
 
-    public static ServiceLoadBalancer getInstance(LoadBalancerType type) {
+    public static ServiceLoadBalancer getInstance(LoadBalancerType type, RpcConsumerConfig consumerConfig) {
         if (null == loadBalancer) {
             synchronized (LoadBalancerFactory.class) {
                 if (null == loadBalancer) {
@@ -19,6 +23,15 @@ public class LoadBalancerFactory {
                         case RoundRobin:
                             loadBalancer=new RoundRobinLoadBalancer();
                             break;
+                        case LeastActive:
+                            loadBalancer = new LeastActiveLoadBalancer();
+                            break;
+                        case PeakEwma:
+                            loadBalancer = new PeakEwmaLoadBalancer(consumerConfig.getPeakEwmaInitialLatencyMillis());
+                            break;
+                        case LoadAware:
+                            loadBalancer = new LoadAwareLoadBalancer();
+                            break;
                         default: // 默认采用一致性哈希
                             loadBalancer = new ConsistentHashLoadBalancer();
                             break;
@@ -3,5 +3,8 @@ package com.brevity.rpc.registry.loadbalancer;
 public enum LoadBalancerType {
     ConsistentHash,
     Random,
-    RoundRobin;
+    RoundRobin,
+    LeastActive,
+    PeakEwma,
+    LoadAware;
 }
@@ -0,0 +1,111 @@
+package com.brevity.rpc.registry.loadbalancer;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.Endpoint;
+import com.brevity.rpc.common.ServiceMeta;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 负载均衡使用的不可变服务列表，路由快照重建时创建一次。每个节点的Endpoint和配置的权重预先放进数组，
+ * 选择时按下标读取，不必每次解析Endpoint、重新计算权重。
+ * 预热中的节点权重随时间变化，所有节点都预热结束后(warmupEnd之后)直接使用配置的权重和预先算好的总权重
+ */
+public final class ServerList extends AbstractList<ServiceMeta> implements RandomAccess {
+
+    private final ServiceMeta[] servers;
+    private final Endpoint[] endpoints;
+    private final int[] weights; // 配置的权重，小于0按0计算
+    private final int totalWeight;
+    private final boolean sameWeight;
+    private final long warmupEnd; // 最后一个节点预热结束的时间，0表示没有需要预热的节点
+
+    private ServerList(List<ServiceMeta> list) {
+        ChannelProvider channelProvider = ChannelProvider.getInstance();
+        int size = list.size();
+        this.servers = list.toArray(new ServiceMeta[0]);
+        this.endpoints = new Endpoint[size];
+        this.weights = new int[size];
+        long total = 0;
+        boolean same = true;
+        long end = 0;
+        for (int i = 0; i < size; i++) {
+            ServiceMeta serviceMeta = servers[i];
+            endpoints[i] = channelProvider.endpoint(serviceMeta);
+            int weight = Math.max(0, serviceMeta.getWeight());
+            weights[i] = weight;
+            total += weight;
+            if (weight != weights[0]) {
+                same = false;
+            }
+            if (weight > 0 && serviceMeta.getWarmup() > 0) {
+                end = Math.max(end, serviceMeta.getCreateTime() + serviceMeta.getWarmup());
+            }
+        }
+        this.totalWeight = (int) Math.min(Integer.MAX_VALUE, total);
+        this.sameWeight = same;
+        this.warmupEnd = end;
+    }
+
+    /**
+     * 路由快照中的列表已经是ServerList，直接返回；其他列表(例如测试中直接构造的)按当前内容创建
+     */
+    public static ServerList of(List<ServiceMeta> servers) {
+        return servers instanceof ServerList ? (ServerList) servers : new ServerList(servers);
+    }
+
+    @Override
+    public ServiceMeta get(int index) {
+        return servers[index];
+    }
+
+    @Override
+    public int size() {
+        return servers.length;
+    }
+
+    public Endpoint endpoint(int index) {
+        return endpoints[index];
+    }
+
+    /**
+     * 是否还有节点处于预热中，now为System.currentTimeMillis()
+     */
+    public boolean isWarming(long now) {
+        return now < warmupEnd;
+    }
+
+    /**
+     * 节点在now时刻的权重，预热中的节点按存活时间占预热时间的比例缩小
+     */
+    public int weight(int index, long now) {
+        int weight = weights[index];
+        if (weight > 0 && now < warmupEnd) {
+            ServiceMeta serviceMeta = servers[index];
+            long liveTime = now - serviceMeta.getCreateTime();
+            long warmup = serviceMeta.getWarmup();
+            if (liveTime > 0 && liveTime < warmup) {
+                // (liveTime/warmup)*weight
+                int afterWarmup = (int) ((float) liveTime / ((float) warmup / (float) weight));
+                weight = afterWarmup < 1 ? 1 : afterWarmup;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * 预热结束后的总权重
+     */
+    public int getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * 预热结束后所有节点的权重是否相同
+     */
+    public boolean isSameWeight() {
+        return sameWeight;
+    }
+}
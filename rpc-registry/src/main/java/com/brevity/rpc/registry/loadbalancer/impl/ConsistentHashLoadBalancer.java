@@ -1,97 +1,143 @@
 package com.brevity.rpc.registry.loadbalancer.impl;
 
 import com.brevity.rpc.common.RpcRequest;
-import com.brevity.rpc.common.RpcServiceHelper;
 import com.brevity.rpc.common.ServiceMeta;
-import com.brevity.rpc.common.exception.RpcRuntimeException;
 import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
 import lombok.extern.slf4j.Slf4j;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * 一致性哈希负载均衡
+ * 一致性哈希负载均衡。哈希环用有序的long[]保存，选择时二分查找；路由键默认是方法名和全部参数，
+ * 也可以通过@RpcReference的hashArguments指定参数下标，相同路由键的请求落到同一个节点上
  */
 @Slf4j
 public class ConsistentHashLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
     private static final int VIRTUAL_NODE_SIZE = 160;
-    private final ReentrantLock lock = new ReentrantLock();
 
     private final ConcurrentHashMap<String, ConsistentHashSelector> SELECTTORS = new ConcurrentHashMap<>();
 
     @Override
     public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
-        String serviceKey = RpcServiceHelper.buildServiceKey(rpcRequest.getClassName(), rpcRequest.getServiceVersion());
-        int identityHashCode = servers.hashCode();
-        ConsistentHashSelector selector = null;
-        selector = SELECTTORS.get(serviceKey);
-        if (selector == null || selector.identityHashCode != identityHashCode) {
-            try {
-                lock.lock();
-                selector = SELECTTORS.get(serviceKey);
-                if (selector == null || selector.identityHashCode != identityHashCode) {
-                    selector = new ConsistentHashSelector(servers, identityHashCode);
-                    SELECTTORS.put(serviceKey, selector);
+        String serviceKey = rpcRequest.serviceKey();
+        ConsistentHashSelector selector = SELECTTORS.get(serviceKey);
+        if (selector == null || !selector.sameServers(servers)) {
+            // 服务列表变化后才重建哈希环，并发重建时以最后一次为准，不影响正确性
+            selector = new ConsistentHashSelector(servers);
+            SELECTTORS.put(serviceKey, selector);
+        }
+        return selector.select(routingHash(rpcRequest));
+    }
+
+    /**
+     * 计算请求的路由键哈希值，参数需要有稳定的hashCode(String、基本类型包装类、枚举、数组等)。
+     * hashArguments的下标在创建引用时已经按方法的参数个数校验过
+     */
+    private static long routingHash(RpcRequest rpcRequest) {
+        Object[] params = rpcRequest.getParams();
+        int[] hashArguments = rpcRequest.hashArguments();
+        long h;
+        if (hashArguments != null && hashArguments.length > 0) {
+            // 指定了路由参数时不区分方法，同一个键在不同方法上也路由到同一个节点
+            h = 0;
+            for (int index : hashArguments) {
+                h = MurmurHash3.hash(h, argumentHash(params[index]));
+            }
+        } else {
+            h = MurmurHash3.hash(rpcRequest.getMethodName(), 0);
+            if (params != null) {
+                for (Object param : params) {
+                    h = MurmurHash3.hash(h, argumentHash(param));
                 }
-            } finally {
-                lock.unlock();
             }
         }
-        ServiceMeta serviceMeta = selector.select(rpcRequest);
-        return serviceMeta;
+        return MurmurHash3.fmix64(h);
+    }
+
+    private static int argumentHash(Object arg) {
+        if (arg == null) {
+            return 0;
+        }
+        if (arg instanceof String) {
+            return stringHash((String) arg);
+        }
+        if (arg instanceof Enum) {
+            // 枚举的hashCode是对象地址，不同进程中不一致
+            return stringHash(((Enum<?>) arg).name());
+        }
+        if (arg.getClass().isArray()) {
+            // 数组的hashCode是对象地址，按内容计算
+            return Arrays.deepHashCode(new Object[]{arg});
+        }
+        return arg.hashCode();
     }
 
-    private class ConsistentHashSelector {
-        private final TreeMap<Long, ServiceMeta> hashRing;
-        private final int identityHashCode;
+    private static int stringHash(String s) {
+        long h = MurmurHash3.hash(s, 0);
+        return (int) (h ^ (h >>> 32));
+    }
 
-        private ConsistentHashSelector(List<ServiceMeta> servers, int identityHashCode) {
-            this.identityHashCode = identityHashCode;
-            this.hashRing = new TreeMap<>();
+    private static class ConsistentHashSelector {
+        private final List<ServiceMeta> source; // 路由快照中的列表引用不变，可以直接比较引用
+        private final ServiceMeta[] servers; // 构建哈希环时的服务列表，按对象引用判断列表是否变化
+        private final long[] ring; // 有序的虚拟节点哈希值
+        private final ServiceMeta[] nodes; // 与ring一一对应的节点
 
-            for (ServiceMeta server : servers) {
-                String s = server.toString();
-                for (int i = 0; i < VIRTUAL_NODE_SIZE / 4; i++) {
-                    byte[] digest = getMd5(s + i);
-                    for (int h = 0; h < 4; h++) {
-                        long m = hash(digest, h);
-                        hashRing.put(m, server);
-                    }
+        private ConsistentHashSelector(List<ServiceMeta> servers) {
+            this.source = servers;
+            this.servers = servers.toArray(new ServiceMeta[0]);
+            int size = this.servers.length * VIRTUAL_NODE_SIZE;
+            long[] hashes = new long[size];
+            Integer[] order = new Integer[size];
+            StringBuilder sb = new StringBuilder();
+            for (int s = 0; s < this.servers.length; s++) {
+                ServiceMeta server = this.servers[s];
+                sb.setLength(0);
+                sb.append(server.getServiceAddr()).append(':').append(server.getServicePort()).append('#');
+                int prefix = sb.length();
+                for (int i = 0; i < VIRTUAL_NODE_SIZE; i++) {
+                    sb.setLength(prefix);
+                    sb.append(i);
+                    int idx = s * VIRTUAL_NODE_SIZE + i;
+                    hashes[idx] = MurmurHash3.hash(sb, 0);
+                    order[idx] = idx;
                 }
             }
-        }
-
-        public ServiceMeta select(RpcRequest rpcRequest) {
-            byte[] digest = getMd5(rpcRequest.toString());
-            Map.Entry<Long, ServiceMeta> entry = hashRing.ceilingEntry(hash(digest, 0));
-            if (entry == null) {
-                entry = hashRing.firstEntry();
+            Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+            this.ring = new long[size];
+            this.nodes = new ServiceMeta[size];
+            for (int i = 0; i < size; i++) {
+                ring[i] = hashes[order[i]];
+                nodes[i] = this.servers[order[i] / VIRTUAL_NODE_SIZE];
             }
-            return entry.getValue();
         }
 
-        public byte[] getMd5(String key) {
-            MessageDigest md;
-            try {
-                md = MessageDigest.getInstance("MD5");
-                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
-                md.update(bytes);
-            } catch (NoSuchAlgorithmException e) {
-                throw new RpcRuntimeException(e.getMessage(), e);
+        private boolean sameServers(List<ServiceMeta> list) {
+            if (list == source) {
+                return true;
+            }
+            if (list.size() != servers.length) {
+                return false;
             }
-            return md.digest();
+            for (int i = 0; i < servers.length; i++) {
+                if (servers[i] != list.get(i)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        public long hash(byte[] digest, int idx) {
-            return ((long) (digest[3 + idx * 4] & 255) << 24 | (long) (digest[2 + idx * 4] & 255) << 16 |
-                    (long) (digest[1 + idx * 4] & 255) << 8 | (long) (digest[idx * 4] & 255)) & 4294967295L;
+        public ServiceMeta select(long hash) {
+            int idx = Arrays.binarySearch(ring, hash);
+            if (idx < 0) {
+                idx = -idx - 1;
+                if (idx == ring.length) {
+                    idx = 0;
+                }
+            }
+            return nodes[idx];
         }
     }
 }
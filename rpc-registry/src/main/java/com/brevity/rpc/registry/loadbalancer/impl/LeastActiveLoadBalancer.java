@@ -0,0 +1,71 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
+import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少活跃调用数负载均衡：选择消费端发往该节点尚未完成的请求数最少的节点，慢节点积压的请求多，自然分到的流量少。
+ * 活跃数相同的节点之间按权重随机选择
+ */
+public class LeastActiveLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
+
+    @Override
+    public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
+        ServerList list = ServerList.of(servers);
+        int size = list.size();
+        long now = System.currentTimeMillis(); // 一次选择只读一次时钟
+        long leastActive = Long.MAX_VALUE;
+        int leastCount = 0; // 活跃数最少的节点个数
+        int firstLeastIndex = -1;
+        int totalWeight = 0;
+        int firstWeight = 0;
+        boolean sameWeight = true;
+        for (int i = 0; i < size; i++) {
+            long active = list.endpoint(i).getActive();
+            int weight = list.weight(i, now);
+            if (active < leastActive) {
+                leastActive = active;
+                leastCount = 1;
+                firstLeastIndex = i;
+                totalWeight = weight;
+                firstWeight = weight;
+                sameWeight = true;
+            } else if (active == leastActive) {
+                leastCount++;
+                totalWeight += weight;
+                if (sameWeight && weight != firstWeight) {
+                    sameWeight = false;
+                }
+            }
+        }
+        if (leastCount == 1) {
+            return list.get(firstLeastIndex);
+        }
+        // 计数在并发变化，第二遍按第一遍得到的最小活跃数重新筛选，没有命中时退回第一个最少活跃的节点
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (!sameWeight && totalWeight > 0) {
+            int offset = random.nextInt(totalWeight);
+            for (int i = firstLeastIndex; i < size; i++) {
+                if (list.endpoint(i).getActive() == leastActive) {
+                    offset -= list.weight(i, now);
+                    if (offset < 0) {
+                        return list.get(i);
+                    }
+                }
+            }
+        } else {
+            int offset = random.nextInt(leastCount);
+            for (int i = firstLeastIndex; i < size; i++) {
+                if (list.endpoint(i).getActive() == leastActive && offset-- == 0) {
+                    return list.get(i);
+                }
+            }
+        }
+        return list.get(firstLeastIndex);
+    }
+}
@@ -0,0 +1,57 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.Endpoint;
+import com.brevity.rpc.common.LoadReport;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
+import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于服务端负载报告的负载均衡：随机选两个节点，比较服务端报告的 (处理中 + 排队 + 本地未完成请求数) × CPU使用率，
+ * 选负载低的那个，服务端饱和之前就把流量引开。
+ * 任意一个节点没有新鲜的负载报告(旧版本服务端或长时间没有响应)时，退化为比较本地未完成的请求数
+ */
+public class LoadAwareLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
+
+    private static final long REPORT_TTL_NANOS = TimeUnit.SECONDS.toNanos(5); // 负载报告的有效期
+
+    @Override
+    public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
+        ServerList list = ServerList.of(servers);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = list.size();
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        ServiceMeta first = list.get(a);
+        ServiceMeta second = list.get(b);
+        Endpoint firstEndpoint = list.endpoint(a);
+        Endpoint secondEndpoint = list.endpoint(b);
+        long now = System.nanoTime();
+        LoadReport firstReport = freshReport(firstEndpoint, now);
+        LoadReport secondReport = freshReport(secondEndpoint, now);
+        if (firstReport != null && secondReport != null) {
+            return score(firstReport, firstEndpoint) <= score(secondReport, secondEndpoint) ? first : second;
+        }
+        return firstEndpoint.getActive() <= secondEndpoint.getActive() ? first : second;
+    }
+
+    private static LoadReport freshReport(Endpoint endpoint, long now) {
+        LoadReport report = endpoint.getLoadReport();
+        return report != null && now - report.getTime() < REPORT_TTL_NANOS ? report : null;
+    }
+
+    private static long score(LoadReport report, Endpoint endpoint) {
+        long load = report.getActiveRequests() + report.getQueueSize() + endpoint.getActive() + 1;
+        // CPU未知时按50%计算
+        int cpu = report.getCpuLoad() < 0 ? 500 : report.getCpuLoad();
+        return load * (1000 + cpu);
+    }
+}
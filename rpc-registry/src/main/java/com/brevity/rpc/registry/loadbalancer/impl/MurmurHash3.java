@@ -0,0 +1,62 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+/**
+ * MurmurHash3(x64)的64位变体，直接在字符上计算，不需要先编码成byte[]
+ */
+final class MurmurHash3 {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private MurmurHash3() {
+    }
+
+    static long hash(CharSequence s, long seed) {
+        long h = seed;
+        int len = s.length();
+        int i = 0;
+        // 每4个字符拼成一个64位的块
+        for (; i + 4 <= len; i += 4) {
+            long k = (long) s.charAt(i) | (long) s.charAt(i + 1) << 16
+                    | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+            h = mixBlock(h, k);
+        }
+        long k = 0;
+        for (int shift = 0; i < len; i++, shift += 16) {
+            k |= (long) s.charAt(i) << shift;
+        }
+        if ((len & 3) != 0) {
+            h ^= mixK(k);
+        }
+        h ^= len;
+        return fmix64(h);
+    }
+
+    /**
+     * 把一个32位的值混入已有的哈希值
+     */
+    static long hash(long h, int value) {
+        return mixBlock(h, value & 0xffffffffL);
+    }
+
+    static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long mixBlock(long h, long k) {
+        h ^= mixK(k);
+        h = Long.rotateLeft(h, 27);
+        return h * 5 + 0x52dce729;
+    }
+
+    private static long mixK(long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+}
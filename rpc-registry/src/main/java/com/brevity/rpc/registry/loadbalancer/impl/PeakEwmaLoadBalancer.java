@@ -0,0 +1,55 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.Endpoint;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
+import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于响应时间的负载均衡(power of two choices + peak EWMA)：随机选两个节点，
+ * 选择 响应时间均值 × (活跃请求数 + 1) 较小的那个。只比较两个节点，选择是O(1)的，也避免所有消费端同时涌向同一个最优节点。
+ * 还没有响应时间样本的节点(新上线或刚建连)代价为 初始响应时间 × 活跃请求数：空闲时可以被选中去探测，
+ * 有请求在途时按初始响应时间计算，不会因为代价为0而在第一个响应返回前吸走所有流量。
+ * 响应时间均值在读取时按空闲时间衰减，因一次抖动而失去流量的节点过一段时间后会重新被选中
+ */
+public class PeakEwmaLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
+
+    private final double initialLatencyNanos;
+
+    public PeakEwmaLoadBalancer(long initialLatencyMillis) {
+        this.initialLatencyNanos = TimeUnit.MILLISECONDS.toNanos(initialLatencyMillis);
+    }
+
+    @Override
+    public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
+        return select(servers, System.nanoTime());
+    }
+
+    /**
+     * 一次选择只读一次时钟，两个候选节点的响应时间均值衰减到同一时刻再比较
+     */
+    ServiceMeta select(List<ServiceMeta> servers, long nowNanos) {
+        ServerList list = ServerList.of(servers);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = list.size();
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        return score(list.endpoint(a), nowNanos) <= score(list.endpoint(b), nowNanos) ? list.get(a) : list.get(b);
+    }
+
+    private double score(Endpoint endpoint, long nowNanos) {
+        double latency = endpoint.getLatencyEwma(nowNanos);
+        if (latency == 0) {
+            return initialLatencyNanos * endpoint.getActive();
+        }
+        return latency * (endpoint.getActive() + 1);
+    }
+}
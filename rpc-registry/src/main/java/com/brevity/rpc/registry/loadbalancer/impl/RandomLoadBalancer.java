@@ -2,6 +2,7 @@ package com.brevity.rpc.registry.loadbalancer.impl;
 
 import com.brevity.rpc.common.RpcRequest;
 import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
 import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
 
 import java.util.List;
@@ -16,48 +17,36 @@ public class RandomLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
 
     @Override
     public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
-        int[] weights = new int[servers.size()];
-        weights[0] = getWeight(servers.get(0));
-        int pre_weight = weights[0];
-        boolean same_weight = true;
-        int total_weights = weights[0];
-        for (int i = 1; i < servers.size(); i++) {
-            weights[i] = getWeight(servers.get(i));
-            total_weights += weights[i];
-            if (same_weight && pre_weight != weights[i]) {
-                same_weight = false;
+        ServerList list = ServerList.of(servers);
+        int size = list.size();
+        int totalWeight;
+        boolean sameWeight;
+        long now = System.currentTimeMillis();
+        if (list.isWarming(now)) {
+            // 有节点在预热中，按当前时刻重新计算权重
+            int firstWeight = list.weight(0, now);
+            totalWeight = firstWeight;
+            sameWeight = true;
+            for (int i = 1; i < size; i++) {
+                int weight = list.weight(i, now);
+                totalWeight += weight;
+                if (sameWeight && weight != firstWeight) {
+                    sameWeight = false;
+                }
             }
-            pre_weight = weights[i];
+        } else {
+            totalWeight = list.getTotalWeight();
+            sameWeight = list.isSameWeight();
         }
-        if (total_weights > 0 && !same_weight) {
-            int offset = random.nextInt(total_weights);
-            for (int i = 0; i < weights.length; i++) {
-                offset -= weights[i];
+        if (totalWeight > 0 && !sameWeight) {
+            int offset = random.nextInt(totalWeight);
+            for (int i = 0; i < size; i++) {
+                offset -= list.weight(i, now);
                 if (offset < 0) {
-                    return servers.get(i);
+                    return list.get(i);
                 }
             }
         }
-        return servers.get(random.nextInt(weights.length));
-    }
-
-    private int getWeight(ServiceMeta serviceMeta) {
-        int weight = serviceMeta.getWeight();
-        if (weight > 0) {
-            long createTime = serviceMeta.getCreateTime();
-            long warmup = serviceMeta.getWarmup();
-            long liveTime = System.currentTimeMillis() - createTime;
-            if (liveTime > 0 && liveTime < warmup) {
-                weight = calculateWarmupWeight(weight, liveTime, warmup);
-            }
-        }
-        return weight;
-    }
-
-    private int calculateWarmupWeight(int weight, long liveTime, long warmup) {
-        // (liveTime/warmup)*weight
-        int afterWarmup = (int) ((float) liveTime / ((float) warmup / (float) weight));
-        return afterWarmup < 1 ? 1 : afterWarmup;
+        return list.get(random.nextInt(size));
     }
-
 }
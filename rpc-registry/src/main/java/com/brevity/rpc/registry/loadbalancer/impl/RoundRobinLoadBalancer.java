@@ -1,8 +1,8 @@
 package com.brevity.rpc.registry.loadbalancer.impl;
 
 import com.brevity.rpc.common.RpcRequest;
-import com.brevity.rpc.common.RpcServiceHelper;
 import com.brevity.rpc.common.ServiceMeta;
+import com.brevity.rpc.registry.loadbalancer.ServerList;
 import com.brevity.rpc.registry.loadbalancer.ServiceLoadBalancer;
 
 import java.util.List;
@@ -10,67 +10,146 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 基于权重的轮询算法
+ * 基于权重的平滑轮询算法(与nginx相同)：每次选择时所有节点的当前权重加上各自的权重，选出当前权重最大的节点，
+ * 再将它的当前权重减去总权重。权重5:1:1时选择序列为a a b a c a a，而不是a a a a a b c。
+ * 一轮的选择序列在权重变化时预先算好，选择时只需原子地递增下标，并发调用之间没有锁
  */
 public class RoundRobinLoadBalancer implements ServiceLoadBalancer<ServiceMeta> {
 
-    private final ConcurrentHashMap<String, AtomicInteger> seqMap = new ConcurrentHashMap<>();
+    private static final long WEIGHT_REFRESH_INTERVAL_MS = 1000; // 预热中的节点每隔该时间重新计算一次权重
+
+    private static final int MAX_SEQUENCE_LENGTH = 4096; // 一轮选择序列的最大长度，总权重更大时按比例缩小权重
+
+    private final ConcurrentHashMap<String, WeightedRoundRobin> roundRobinMap = new ConcurrentHashMap<>();
 
     @Override
     public ServiceMeta doSelect(List<ServiceMeta> servers, RpcRequest rpcRequest) {
-        String serviceKey = RpcServiceHelper.buildServiceKey(rpcRequest.getClassName(), rpcRequest.getServiceVersion());
-        int len = servers.size();
-        int maxWeight = 0;
-        int minWeight = Integer.MAX_VALUE;
-        int[] weights = new int[len];
-        int totalWeight = 0;
-        for (int i = 0; i < len; i++) {
-            ServiceMeta meta = servers.get(i);
-            int weight = getWeight(meta);
-            maxWeight = Math.max(weight, maxWeight);
-            minWeight = Math.min(weight, minWeight);
-            weights[i] = weight;
-            totalWeight += weight;
+        String serviceKey = rpcRequest.serviceKey();
+        WeightedRoundRobin roundRobin = roundRobinMap.get(serviceKey);
+        if (roundRobin == null || !roundRobin.sameServers(servers)) {
+            // 服务列表变化后重建，并发调用共享同一个轮询状态，否则各自的下标互相覆盖会打乱权重比例
+            roundRobin = roundRobinMap.compute(serviceKey, (key, old) ->
+                    old != null && old.sameServers(servers) ? old : new WeightedRoundRobin(servers));
         }
-        AtomicInteger seq = seqMap.get(serviceKey);
-        if (seq == null) {
-            seqMap.putIfAbsent(serviceKey, new AtomicInteger(0));
-            seq = seqMap.get(serviceKey);
+        return roundRobin.select();
+    }
+
+    /**
+     * 一个服务列表对应的轮询状态，服务列表中的ServiceMeta对象在注册中心刷新前保持不变，按对象引用判断列表是否变化
+     */
+    private static final class WeightedRoundRobin {
+        private final List<ServiceMeta> source; // 路由快照中的列表引用不变，可以直接比较引用
+        private final ServerList servers;
+        private final AtomicInteger position = new AtomicInteger();
+        private volatile Round round;
+
+        private WeightedRoundRobin(List<ServiceMeta> servers) {
+            this.source = servers;
+            this.servers = ServerList.of(servers);
+            this.round = buildRound(this.servers, System.currentTimeMillis());
         }
-        int currentSeq = seq.getAndIncrement();
-        if (minWeight > 0 && minWeight < maxWeight) {
-            int mod = currentSeq % totalWeight;
-            for (int i = 0; i < maxWeight; i++) {
-                for (int j = 0; j < len; j++) {
-                    if (mod == 0 && weights[j] > 0) {
-                        return servers.get(j);
-                    }
-                    if (weights[j] > 0) {
-                        weights[j]--;
-                        mod--;
-                    }
+
+        private boolean sameServers(List<ServiceMeta> list) {
+            if (list == source) {
+                return true;
+            }
+            if (list.size() != servers.size()) {
+                return false;
+            }
+            for (int i = 0; i < servers.size(); i++) {
+                if (servers.get(i) != list.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private ServiceMeta select() {
+            Round current = round;
+            if (current.warming) {
+                long now = System.currentTimeMillis();
+                if (now >= current.nextRefreshTime) {
+                    // 并发刷新时以最后一次为准，各次刷新的结果相同
+                    current = buildRound(servers, now);
+                    round = current;
                 }
             }
+            ServiceMeta[] sequence = current.sequence;
+            return sequence[(position.getAndIncrement() & Integer.MAX_VALUE) % sequence.length];
         }
-        return servers.get(currentSeq % len);
     }
 
-    private int getWeight(ServiceMeta serviceMeta) {
-        int weight = serviceMeta.getWeight();
-        if (weight > 0) {
-            long createTime = serviceMeta.getCreateTime();
-            long warmup = serviceMeta.getWarmup();
-            long liveTime = System.currentTimeMillis() - createTime;
-            if (liveTime > 0 && liveTime < warmup) {
-                weight = calculateWarmupWeight(weight, liveTime, warmup);
+    /**
+     * 按当前权重预先生成的一轮选择序列，不可变
+     */
+    private static final class Round {
+        private final ServiceMeta[] sequence;
+        private final boolean warming; // 是否还有节点处于预热中
+        private final long nextRefreshTime;
+
+        private Round(ServiceMeta[] sequence, boolean warming, long nextRefreshTime) {
+            this.sequence = sequence;
+            this.warming = warming;
+            this.nextRefreshTime = nextRefreshTime;
+        }
+    }
+
+    private static Round buildRound(ServerList servers, long now) {
+        int size = servers.size();
+        int[] weights = new int[size];
+        long total = 0;
+        boolean warming = servers.isWarming(now);
+        for (int i = 0; i < size; i++) {
+            weights[i] = servers.weight(i, now);
+            total += weights[i];
+        }
+        if (total == 0) {
+            // 所有节点权重都为0时退化为普通轮询
+            return new Round(servers.toArray(new ServiceMeta[0]), warming, now + WEIGHT_REFRESH_INTERVAL_MS);
+        }
+        int totalWeight = normalize(weights, total);
+        ServiceMeta[] sequence = new ServiceMeta[totalWeight];
+        int[] currentWeights = new int[size];
+        for (int n = 0; n < totalWeight; n++) {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                currentWeights[i] += weights[i];
+                if (weights[i] > 0 && (best < 0 || currentWeights[i] > currentWeights[best])) {
+                    best = i;
+                }
             }
+            currentWeights[best] -= totalWeight;
+            sequence[n] = servers.get(best);
         }
-        return weight;
+        return new Round(sequence, warming, now + WEIGHT_REFRESH_INTERVAL_MS);
     }
 
-    private int calculateWarmupWeight(int weight, long liveTime, long warmup) {
-        // (liveTime/warmup)*weight
-        int afterWarmup = (int) ((float) liveTime / ((float) warmup / (float) weight));
-        return afterWarmup < 1 ? 1 : afterWarmup;
+    /**
+     * 权重除以最大公约数，总和仍超过MAX_SEQUENCE_LENGTH时按比例缩小(非0的权重至少为1)，返回新的总权重
+     */
+    private static int normalize(int[] weights, long total) {
+        int gcd = 0;
+        for (int weight : weights) {
+            gcd = gcd(gcd, weight);
+        }
+        total /= gcd;
+        double scale = total > MAX_SEQUENCE_LENGTH ? (double) MAX_SEQUENCE_LENGTH / total : 1;
+        int newTotal = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                weights[i] = Math.max(1, (int) (weights[i] / gcd * scale));
+                newTotal += weights[i];
+            }
+        }
+        return newTotal;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
     }
 }
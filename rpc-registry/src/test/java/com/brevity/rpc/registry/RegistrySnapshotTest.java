@@ -0,0 +1,91 @@
+package com.brevity.rpc.registry;
+
+import com.brevity.rpc.common.ServiceMeta;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 快照的写入和加载，目录不可用时降级为不写入
+ */
+public class RegistrySnapshotTest {
+
+    private static Map<String, List<ServiceMeta>> services() {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setServiceName("com.brevity.rpc.facade.HelloFacade");
+        serviceMeta.setServiceVersion("1.0");
+        serviceMeta.setServiceAddr("10.0.0.1");
+        serviceMeta.setServicePort(8080);
+        serviceMeta.setWeight(50);
+        Map<String, List<ServiceMeta>> services = new ConcurrentHashMap<>();
+        services.put("com.brevity.rpc.facade.HelloFacade#1.0", Collections.singletonList(serviceMeta));
+        return services;
+    }
+
+    private static Path save(Path dir) throws InterruptedException {
+        new RegistrySnapshot(dir.toString(), "127.0.0.1:2181", services()).scheduleSave();
+        File[] files = null;
+        for (int i = 0; i < 100 && (files == null || files.length == 0); i++) {
+            Thread.sleep(20);
+            files = dir.toFile().listFiles((d, name) -> name.endsWith(".snapshot"));
+        }
+        assertEquals(1, files.length);
+        return files[0].toPath();
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        save(dir);
+
+        Map<String, List<ServiceMeta>> loaded = new RegistrySnapshot(dir.toString(), "127.0.0.1:2181",
+                new ConcurrentHashMap<>()).load();
+        assertEquals(services(), loaded);
+    }
+
+    @Test
+    public void corruptedSnapshotIsIgnored() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path file = save(dir);
+        byte[] valid = Files.readAllBytes(file);
+        RegistrySnapshot snapshot = new RegistrySnapshot(dir.toString(), "127.0.0.1:2181", new ConcurrentHashMap<>());
+
+        // 魔数和版本号之后是服务数，再之后是服务key和该服务的节点数
+        for (int count : new int[]{-1, Integer.MAX_VALUE}) {
+            ByteBuffer corrupted = ByteBuffer.wrap(valid.clone());
+            corrupted.putInt(8, count);
+            Files.write(file, corrupted.array());
+            assertTrue(snapshot.load().isEmpty());
+        }
+        ByteBuffer corrupted = ByteBuffer.wrap(valid.clone());
+        int sizeIndex = 12 + 2 + (corrupted.getShort(12) & 0xFFFF);
+        corrupted.putInt(sizeIndex, -5);
+        Files.write(file, corrupted.array());
+        assertTrue(snapshot.load().isEmpty());
+        // 截断的文件
+        Files.write(file, Arrays.copyOf(valid, valid.length / 2));
+        assertTrue(snapshot.load().isEmpty());
+    }
+
+    @Test
+    public void unusableDirIsIgnored() throws Exception {
+        // 快照目录的位置上是一个普通文件，目录无法创建
+        Path file = Files.createTempFile("snapshot", ".file");
+        RegistrySnapshot snapshot = new RegistrySnapshot(file.resolve("sub").toString(), "127.0.0.1:2181",
+                services());
+        snapshot.scheduleSave();
+        assertTrue(snapshot.load().isEmpty());
+        assertTrue(Files.isRegularFile(file));
+    }
+}
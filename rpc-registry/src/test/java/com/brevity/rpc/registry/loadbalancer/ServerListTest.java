@@ -0,0 +1,57 @@
+package com.brevity.rpc.registry.loadbalancer;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.ServiceMeta;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 路由快照重建时预先计算的Endpoint和权重
+ */
+public class ServerListTest {
+
+    private static ServiceMeta server(String addr, int weight, long createTime, long warmup) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setServiceAddr(addr);
+        serviceMeta.setServicePort(8091);
+        serviceMeta.setWeight(weight);
+        serviceMeta.setCreateTime(createTime);
+        serviceMeta.setWarmup(warmup);
+        return serviceMeta;
+    }
+
+    @Test
+    public void precomputedEndpointsAndWeights() {
+        ServiceMeta a = server("10.2.0.1", 100, 0, 0);
+        ServiceMeta b = server("10.2.0.2", -1, 0, 0);
+        ServerList list = ServerList.of(Arrays.asList(a, b));
+
+        assertSame(list, ServerList.of(list));
+        assertSame(ChannelProvider.getInstance().endpoint(b), list.endpoint(1));
+        assertEquals(0, list.weight(1, System.currentTimeMillis()));
+        assertEquals(100, list.getTotalWeight());
+        assertFalse(list.isSameWeight());
+        assertFalse(list.isWarming(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void warmupWeightUntilWarmupEnds() {
+        long createTime = 1_000_000;
+        ServiceMeta warming = server("10.2.0.3", 100, createTime, 10_000);
+        ServiceMeta steady = server("10.2.0.4", 100, 0, 0);
+        ServerList list = ServerList.of(Arrays.asList(warming, steady));
+
+        assertTrue(list.isWarming(createTime + 2_500));
+        assertEquals(25, list.weight(0, createTime + 2_500));
+        assertEquals(100, list.weight(1, createTime + 2_500));
+        assertFalse(list.isWarming(createTime + 10_000));
+        assertEquals(100, list.weight(0, createTime + 10_000));
+        assertTrue(list.isSameWeight());
+    }
+}
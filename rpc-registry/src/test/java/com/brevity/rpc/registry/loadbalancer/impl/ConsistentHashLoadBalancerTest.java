@@ -0,0 +1,55 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 相同内容的数组参数路由到同一个节点
+ */
+public class ConsistentHashLoadBalancerTest {
+
+    private final List<ServiceMeta> servers = new ArrayList<>();
+
+    private final ConsistentHashLoadBalancer loadBalancer = new ConsistentHashLoadBalancer();
+
+    public ConsistentHashLoadBalancerTest() {
+        for (int i = 0; i < 8; i++) {
+            ServiceMeta serviceMeta = new ServiceMeta();
+            serviceMeta.setServiceAddr("10.0.0." + i);
+            serviceMeta.setServicePort(8080);
+            servers.add(serviceMeta);
+        }
+    }
+
+    private ServiceMeta select(Object... params) {
+        RpcRequest request = new RpcRequest();
+        request.setClassName("com.brevity.rpc.facade.HelloFacade");
+        request.setServiceVersion("1.0");
+        request.setMethodName("hello");
+        request.setParams(params);
+        request.hashArguments(new int[]{0});
+        return loadBalancer.select(servers, request);
+    }
+
+    @Test
+    public void arraysHashByContent() {
+        Set<ServiceMeta> selected = new HashSet<>();
+        for (int i = 0; i < 64; i++) {
+            assertSame(select(new int[]{i, 2, 3}), select(new int[]{i, 2, 3}));
+            assertSame(select((Object) new String[]{"k" + i}), select((Object) new String[]{"k" + i}));
+            assertSame(select((Object) new long[][]{{i}}), select((Object) new long[][]{{i}}));
+            selected.add(select(new int[]{i}));
+        }
+        // 不同的内容分散到多个节点
+        assertTrue(selected.size() > 1);
+    }
+}
@@ -0,0 +1,78 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.ChannelProvider;
+import com.brevity.rpc.common.Endpoint;
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 没有响应时间样本的节点：空闲时可以被选中探测，有请求在途时按初始响应时间计算代价
+ */
+public class PeakEwmaLoadBalancerTest {
+
+    private final ChannelProvider channelProvider = ChannelProvider.getInstance();
+
+    private static ServiceMeta server(String addr) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setServiceAddr(addr);
+        serviceMeta.setServicePort(8090);
+        return serviceMeta;
+    }
+
+    @Test
+    public void unsampledEndpointDoesNotAbsorbAllTraffic() {
+        ServiceMeta warm = server("10.1.0.1");
+        ServiceMeta fresh = server("10.1.0.2");
+        List<ServiceMeta> servers = Arrays.asList(warm, fresh);
+        Endpoint warmEndpoint = channelProvider.endpoint(warm);
+        Endpoint freshEndpoint = channelProvider.endpoint(fresh);
+        warmEndpoint.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        PeakEwmaLoadBalancer loadBalancer = new PeakEwmaLoadBalancer(500);
+        RpcRequest request = new RpcRequest();
+
+        // 新节点空闲，代价为0，被选中去探测
+        assertSame(fresh, loadBalancer.select(servers, request));
+        // 探测请求在途，按500ms计算代价，流量回到有样本的节点
+        freshEndpoint.requestStarted();
+        for (int i = 0; i < 10; i++) {
+            assertSame(warm, loadBalancer.select(servers, request));
+            warmEndpoint.requestStarted();
+        }
+        // 收到响应后按实际响应时间参与选择
+        freshEndpoint.requestFinished();
+        freshEndpoint.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        assertSame(fresh, loadBalancer.select(servers, request));
+    }
+
+    @Test
+    public void spikedEndpointRecoversWhileIdle() {
+        ServiceMeta steady = server("10.1.0.3");
+        ServiceMeta spiked = server("10.1.0.4");
+        List<ServiceMeta> servers = Arrays.asList(steady, spiked);
+        Endpoint steadyEndpoint = channelProvider.endpoint(steady);
+        Endpoint spikedEndpoint = channelProvider.endpoint(spiked);
+        steadyEndpoint.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        spikedEndpoint.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        // 一次抖动，峰值规则使均值立即变为1s
+        spikedEndpoint.recordLatency(TimeUnit.SECONDS.toNanos(1));
+        PeakEwmaLoadBalancer loadBalancer = new PeakEwmaLoadBalancer(500);
+        long now = System.nanoTime();
+        assertSame(steady, loadBalancer.select(servers, now));
+
+        // 抖动的节点之后没有新样本，均值随空闲时间衰减；另一个节点持续有10ms的样本
+        long later = now + TimeUnit.SECONDS.toNanos(60);
+        for (long t = now; t <= later; t += TimeUnit.SECONDS.toNanos(1)) {
+            steadyEndpoint.recordLatency(TimeUnit.MILLISECONDS.toNanos(10), t);
+        }
+        assertTrue(spikedEndpoint.getLatencyEwma(later) < steadyEndpoint.getLatencyEwma(later));
+        assertSame(spiked, loadBalancer.select(servers, later));
+    }
+}
@@ -0,0 +1,84 @@
+package com.brevity.rpc.registry.loadbalancer.impl;
+
+import com.brevity.rpc.common.RpcRequest;
+import com.brevity.rpc.common.ServiceMeta;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 平滑加权轮询的选择序列和并发选择时的比例
+ */
+public class RoundRobinLoadBalancerTest {
+
+    private static ServiceMeta server(String addr, int weight) {
+        ServiceMeta serviceMeta = new ServiceMeta();
+        serviceMeta.setServiceAddr(addr);
+        serviceMeta.setServicePort(8080);
+        serviceMeta.setWeight(weight);
+        serviceMeta.setCreateTime(0);
+        serviceMeta.setWarmup(0);
+        return serviceMeta;
+    }
+
+    private static RpcRequest request() {
+        RpcRequest request = new RpcRequest();
+        request.setClassName("com.brevity.rpc.facade.HelloFacade");
+        request.setServiceVersion("1.0");
+        return request;
+    }
+
+    @Test
+    public void smoothSequence() {
+        ServiceMeta a = server("a", 5);
+        ServiceMeta b = server("b", 1);
+        ServiceMeta c = server("c", 1);
+        List<ServiceMeta> servers = Arrays.asList(a, b, c);
+        RoundRobinLoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+        RpcRequest request = request();
+
+        List<ServiceMeta> selected = new ArrayList<>();
+        for (int i = 0; i < 14; i++) {
+            selected.add(loadBalancer.select(servers, request));
+        }
+        assertEquals(Arrays.asList(a, a, b, a, c, a, a, a, a, b, a, c, a, a), selected);
+    }
+
+    @Test
+    public void concurrentSelectKeepsWeights() throws Exception {
+        ServiceMeta a = server("a", 60);
+        ServiceMeta b = server("b", 30);
+        ServiceMeta c = server("c", 10);
+        List<ServiceMeta> servers = Arrays.asList(a, b, c);
+        RoundRobinLoadBalancer loadBalancer = new RoundRobinLoadBalancer();
+        Map<ServiceMeta, AtomicInteger> counts = new ConcurrentHashMap<>();
+        for (ServiceMeta server : servers) {
+            counts.put(server, new AtomicInteger());
+        }
+        int threads = 4;
+        int perThread = 2500;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                RpcRequest request = request();
+                for (int i = 0; i < perThread; i++) {
+                    counts.get(loadBalancer.select(servers, request)).incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        // 总选择次数是一轮(10次)的整数倍，各节点的次数严格按权重分配
+        assertEquals(6000, counts.get(a).get());
+        assertEquals(3000, counts.get(b).get());
+        assertEquals(1000, counts.get(c).get());
+    }
+}